@@ -21,4 +21,19 @@ dependencies {
 
 tasks.test {
     useJUnitPlatform()
-}
\ No newline at end of file
+}
+
+val precompileRegistries by tasks.registering(JavaExec::class) {
+    description = "Encodes the registry and tag resources into ready-to-send configuration frames."
+    val output = layout.buildDirectory.dir("generated/precompiled")
+    classpath = sourceSets.main.get().runtimeClasspath
+    mainClass.set("eu.mikart.kimmoke.server.RegistryFrames")
+    argumentProviders.add(CommandLineArgumentProvider {
+        listOf(output.get().file("registries_1_21_11.bin").asFile.absolutePath)
+    })
+    outputs.dir(output)
+}
+
+tasks.jar {
+    from(precompileRegistries)
+}
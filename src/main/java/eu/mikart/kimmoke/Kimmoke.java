@@ -13,14 +13,7 @@ public class Kimmoke {
     static void main() throws Exception {
         settings = YamlConfigurations.update(Path.of("config.yml"), Settings.class);
 
-        var server = new NioLimboServer(
-            "0.0.0.0",
-            settings.getPort(),
-            settings.isVelocityModernForwarding(),
-            settings.getVelocitySecret(),
-            false,
-            settings.getSpawnPosition()
-        );
+        var server = new NioLimboServer("0.0.0.0", settings);
         server.run();
     }
 }
@@ -11,10 +11,70 @@ import lombok.Getter;
 public class Settings {
     @Comment("The port to listen on")
     private int port = 25565;
-    @Comment("Whether to enable Velocity modern forwarding")
+    @Comment("Whether to enable Velocity modern forwarding, also turns off the per-address connection limits")
     private boolean velocityModernForwarding = false;
     @Comment("The secret for Velocity modern forwarding")
     private String velocitySecret = "";
+    @Comment("Whether players are authenticated against the session server and the connection is encrypted, for running without a proxy")
+    private boolean onlineMode = false;
+    @Comment("Base URL of the session server used in online mode")
+    private String sessionServer = "https://sessionserver.mojang.com";
+    @Comment("Threads that wait on session server lookups in online mode, kept off the event loops")
+    private int sessionThreads = 16;
     @Comment("Spawn position for the player")
     private Position spawnPosition = Position.ZERO;
+    @Comment("Message of the day shown in the server list")
+    private String motd = "Kimmoke";
+    @Comment("Maximum player count shown in the server list")
+    private int maxPlayers = 100;
+    @Comment("Path to a 64x64 PNG shown as the server icon, empty for none")
+    private String favicon = "";
+    @Comment("Whether the player joins in hardcore mode")
+    private boolean hardcore = false;
+    @Comment("Radius in chunks of the world sent around the spawn position, also the client view distance")
+    private int viewDistance = 8;
+    @Comment("Anvil world folder whose chunks around the spawn are sent instead of a void world, empty for a void world")
+    private String worldDirectory = "";
+    @Comment("Folder with the blocks.json and registries.json reports the vanilla 1.21.11 server generates with --reports, needed for worldDirectory")
+    private String worldReportsDirectory = "";
+    @Comment("Encoded world chunks kept in memory")
+    private int worldCacheChunks = 4096;
+    @Comment("Number of event loop threads, 0 to use one per available processor")
+    private int workerThreads = 0;
+    @Comment("Bind one listening socket per acceptor thread with SO_REUSEPORT (Linux), also lets several processes share the port")
+    private boolean reusePort = false;
+    @Comment("Number of listening sockets and acceptor threads when reusePort is enabled")
+    private int acceptorThreads = 1;
+    @Comment("Memory-mapped file shared by processes on the same port to sum the online count, empty to disable")
+    private String sharedCountersFile = "";
+    @Comment("Megabytes of idle read buffers each event loop keeps pooled, extra buffers are dropped when released")
+    private int bufferPoolMegabytes = 64;
+    @Comment("Kilobytes of its own packet data a single connection may have queued for writing before it is disconnected as a slow reader, shared pre-encoded packets are not counted")
+    private int maxQueuedKilobytesPerConnection = 1024;
+    @Comment("Megabytes of their own packet data all connections together may have queued for writing")
+    private int maxQueuedMegabytesTotal = 512;
+    @Comment("Packets at least this many bytes long are zlib compressed, -1 to disable compression")
+    private int compressionThreshold = 256;
+    @Comment("Seconds a new connection has to finish the handshake and status exchange")
+    private int handshakeTimeout = 5;
+    @Comment("Seconds a connection has to get from login start into play")
+    private int loginTimeout = 30;
+    @Comment("Keep-alives a client may leave unanswered before it is disconnected")
+    private int maxMissedKeepAlives = 3;
+    @Comment("New connections per second accepted from one address, 0 for no limit")
+    private int connectionsPerSecondPerAddress = 5;
+    @Comment("Open connections allowed from one address, 0 for no limit")
+    private int maxConnectionsPerAddress = 10;
+    @Comment("New connections per second accepted from one IPv4 /24 or IPv6 /64, 0 for no limit")
+    private int connectionsPerSecondPerPrefix = 20;
+    @Comment("Open connections allowed from one IPv4 /24 or IPv6 /64, 0 for no limit")
+    private int maxConnectionsPerPrefix = 40;
+    @Comment("Host players in play are transferred to with the Transfer packet, empty to keep them in limbo")
+    private String transferHost = "";
+    @Comment("Port players are transferred to")
+    private int transferPort = 25565;
+    @Comment("Players transferred per second, in the order they reached play")
+    private int transfersPerSecond = 20;
+    @Comment("Interval in seconds between stats reports on stdout, 0 to disable")
+    private int statsInterval = 0;
 }
@@ -0,0 +1,221 @@
+package eu.mikart.kimmoke.server;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+final class AdmissionControl {
+    private static final int INITIAL_CAPACITY = 1 << 16;
+    private static final long IPV4_MAPPED = 0x0000_FFFF_0000_0000L;
+    private static final long IPV4_PREFIX = 0xFF01_0000_0000_0004L;
+    private static final long IPV6_PREFIX = 0xFF01_0000_0000_0006L;
+    private static final long SWEEP_INTERVAL_NANOS = 1_000_000_000L;
+
+    private final long addressInterval;
+    private final long addressBurst;
+    private final int addressMaxActive;
+    private final long prefixInterval;
+    private final long prefixBurst;
+    private final int prefixMaxActive;
+
+    private final long seed = ThreadLocalRandom.current().nextLong();
+    private long[] highs = new long[INITIAL_CAPACITY];
+    private long[] lows = new long[INITIAL_CAPACITY];
+    private long[] arrivals = new long[INITIAL_CAPACITY];
+    private int[] active = new int[INITIAL_CAPACITY];
+    private long[] spareHighs = new long[INITIAL_CAPACITY];
+    private long[] spareLows = new long[INITIAL_CAPACITY];
+    private long[] spareArrivals = new long[INITIAL_CAPACITY];
+    private int[] spareActive = new int[INITIAL_CAPACITY];
+    private int size = 0;
+    private int maxSize = maxSize(INITIAL_CAPACITY);
+    private long lastSweep = System.nanoTime();
+
+    AdmissionControl(int addressPerSecond, int addressMaxActive, int prefixPerSecond, int prefixMaxActive) {
+        this.addressInterval = addressPerSecond > 0 ? 1_000_000_000L / addressPerSecond : 0L;
+        this.addressBurst = addressInterval * Math.max(1, addressPerSecond);
+        this.addressMaxActive = addressMaxActive;
+        this.prefixInterval = prefixPerSecond > 0 ? 1_000_000_000L / prefixPerSecond : 0L;
+        this.prefixBurst = prefixInterval * Math.max(1, prefixPerSecond);
+        this.prefixMaxActive = prefixMaxActive;
+    }
+
+    static long addressHigh(byte[] address) {
+        return address.length == 4 ? 0L : long64(address, 0);
+    }
+
+    static long addressLow(byte[] address) {
+        return address.length == 4 ? IPV4_MAPPED | (ipv4(address) & 0xFFFF_FFFFL) : long64(address, 8);
+    }
+
+    synchronized boolean admit(long addressHigh, long addressLow) {
+        long now = System.nanoTime();
+        if (size + 2 > maxSize || now - lastSweep >= SWEEP_INTERVAL_NANOS) {
+            sweep(now);
+        }
+
+        int address = findOrInsert(addressHigh, addressLow);
+        int prefix = findOrInsert(prefixHigh(addressHigh, addressLow), prefixLow(addressHigh, addressLow));
+        if (!allowed(address, now, addressInterval, addressBurst, addressMaxActive)
+            || !allowed(prefix, now, prefixInterval, prefixBurst, prefixMaxActive)) {
+            return false;
+        }
+
+        arrivals[address] = Math.max(arrivals[address], now) + addressInterval;
+        arrivals[prefix] = Math.max(arrivals[prefix], now) + prefixInterval;
+        active[address]++;
+        active[prefix]++;
+        return true;
+    }
+
+    synchronized void release(long addressHigh, long addressLow) {
+        decrement(find(addressHigh, addressLow));
+        decrement(find(prefixHigh(addressHigh, addressLow), prefixLow(addressHigh, addressLow)));
+    }
+
+    private static boolean isIpv4(long high, long low) {
+        return high == 0L && (low & 0xFFFF_FFFF_0000_0000L) == IPV4_MAPPED;
+    }
+
+    private static long prefixHigh(long high, long low) {
+        return isIpv4(high, low) ? IPV4_PREFIX : IPV6_PREFIX;
+    }
+
+    private static long prefixLow(long high, long low) {
+        return isIpv4(high, low) ? (low & 0xFFFF_FFFFL) >>> 8 : high;
+    }
+
+    private boolean allowed(int slot, long now, long interval, long burst, int maxActive) {
+        if (maxActive > 0 && active[slot] >= maxActive) {
+            return false;
+        }
+        return interval == 0L || Math.max(arrivals[slot], now) + interval - now <= burst;
+    }
+
+    private void decrement(int slot) {
+        if (slot >= 0 && active[slot] > 0) {
+            active[slot]--;
+        }
+    }
+
+    private int find(long high, long low) {
+        int mask = highs.length - 1;
+        for (int slot = hash(high, low) & mask; ; slot = (slot + 1) & mask) {
+            if (highs[slot] == high && lows[slot] == low) {
+                return slot;
+            }
+            if (empty(slot)) {
+                return -1;
+            }
+        }
+    }
+
+    private int findOrInsert(long high, long low) {
+        int mask = highs.length - 1;
+        for (int slot = hash(high, low) & mask; ; slot = (slot + 1) & mask) {
+            if (highs[slot] == high && lows[slot] == low) {
+                return slot;
+            }
+            if (empty(slot)) {
+                highs[slot] = high;
+                lows[slot] = low;
+                arrivals[slot] = 0L;
+                active[slot] = 0;
+                size++;
+                return slot;
+            }
+        }
+    }
+
+    private void sweep(long now) {
+        int live = 0;
+        for (int i = 0; i < highs.length; i++) {
+            if (!empty(i) && !expired(i, now)) {
+                live++;
+            }
+        }
+        int capacity = highs.length;
+        while (live >= maxSize(capacity) / 2) {
+            capacity <<= 1;
+        }
+        if (spareHighs.length != capacity) {
+            spareHighs = new long[capacity];
+            spareLows = new long[capacity];
+            spareArrivals = new long[capacity];
+            spareActive = new int[capacity];
+        }
+
+        int mask = capacity - 1;
+        for (int i = 0; i < highs.length; i++) {
+            if (empty(i)) {
+                continue;
+            }
+            long high = highs[i];
+            long low = lows[i];
+            highs[i] = 0L;
+            lows[i] = 0L;
+            if (expired(i, now)) {
+                continue;
+            }
+
+            int slot = hash(high, low) & mask;
+            while (spareHighs[slot] != 0L || spareLows[slot] != 0L) {
+                slot = (slot + 1) & mask;
+            }
+            spareHighs[slot] = high;
+            spareLows[slot] = low;
+            spareArrivals[slot] = arrivals[i];
+            spareActive[slot] = active[i];
+        }
+
+        long[] swapHighs = highs;
+        highs = spareHighs;
+        spareHighs = swapHighs;
+        long[] swapLows = lows;
+        lows = spareLows;
+        spareLows = swapLows;
+        long[] swapArrivals = arrivals;
+        arrivals = spareArrivals;
+        spareArrivals = swapArrivals;
+        int[] swapActive = active;
+        active = spareActive;
+        spareActive = swapActive;
+        if (spareHighs.length != capacity) {
+            spareHighs = new long[capacity];
+            spareLows = new long[capacity];
+            spareArrivals = new long[capacity];
+            spareActive = new int[capacity];
+        }
+        size = live;
+        maxSize = maxSize(capacity);
+        lastSweep = now;
+    }
+
+    private boolean empty(int slot) {
+        return highs[slot] == 0L && lows[slot] == 0L;
+    }
+
+    private boolean expired(int slot, long now) {
+        return active[slot] == 0 && arrivals[slot] - now <= 0L;
+    }
+
+    private static int maxSize(int capacity) {
+        return capacity / 4 * 3;
+    }
+
+    private int hash(long high, long low) {
+        long h = (high ^ seed) * 0x9E37_79B9_7F4A_7C15L;
+        h = (h ^ (h >>> 32) ^ low) * 0xC2B2_AE3D_27D4_EB4FL;
+        return (int) (h ^ (h >>> 29));
+    }
+
+    private static int ipv4(byte[] bytes) {
+        return (bytes[0] & 0xFF) << 24 | (bytes[1] & 0xFF) << 16 | (bytes[2] & 0xFF) << 8 | (bytes[3] & 0xFF);
+    }
+
+    private static long long64(byte[] bytes, int offset) {
+        long value = 0L;
+        for (int i = 0; i < 8; i++) {
+            value = value << 8 | (bytes[offset + i] & 0xFFL);
+        }
+        return value;
+    }
+}
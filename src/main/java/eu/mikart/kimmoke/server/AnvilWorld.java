@@ -0,0 +1,384 @@
+package eu.mikart.kimmoke.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+final class AnvilWorld {
+    private static final int SECTOR_SIZE = 4096;
+    private static final int REGION_HEADER_SIZE = 2 * SECTOR_SIZE;
+    private static final int COMPRESSION_GZIP = 1;
+    private static final int COMPRESSION_ZLIB = 2;
+    private static final int COMPRESSION_NONE = 3;
+    private static final int MIN_SECTION = -4;
+    private static final int LIGHT_SECTION_COUNT = ChunkEncoder.SECTION_COUNT + 2;
+    private static final int LIGHT_ARRAY_SIZE = 2048;
+    private static final int BLOCKS_PER_SECTION = 4096;
+    private static final int BIOMES_PER_SECTION = 64;
+    private static final String FULL_STATUS = "full";
+    private static final Map<String, Integer> CLIENT_HEIGHTMAPS = Map.of("WORLD_SURFACE", 1, "MOTION_BLOCKING", 4, "MOTION_BLOCKING_NO_LEAVES", 5);
+    private static final ByteBuffer MISSING_REGION = ByteBuffer.allocate(0);
+    private static final int MAX_MAPPED_REGIONS = 64;
+
+    private final Path regionDirectory;
+    private final BlockRegistry blocks;
+    private final Map<String, Integer> biomes;
+    private final int biomeBits;
+    private final int defaultBiome;
+    private final ByteBuffer emptySections;
+    private final ThreadLocal<PacketCompression> compression;
+    private final Map<Long, ByteBuffer> regions = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, ByteBuffer> eldest) {
+            return size() > MAX_MAPPED_REGIONS;
+        }
+    };
+    private final Map<Long, CompletableFuture<ChunkFrames>> chunks;
+
+    AnvilWorld(Path directory, BlockRegistry blocks, Map<String, Integer> biomes, int defaultBiome, int maxCachedChunks, int compressionThreshold) {
+        Path regionDirectory = directory.resolve("region");
+        this.regionDirectory = Files.isDirectory(regionDirectory) ? regionDirectory : directory;
+        this.blocks = blocks;
+        this.biomes = biomes;
+        this.biomeBits = ChunkEncoder.ceilLog2(Math.max(2, biomes.size()));
+        this.defaultBiome = defaultBiome;
+        this.emptySections = ChunkEncoder.emptySections(defaultBiome);
+        this.compression = compressionThreshold < 0 ? null
+            : ThreadLocal.withInitial(() -> new PacketCompression(compressionThreshold, Deflater.DEFAULT_COMPRESSION));
+        this.chunks = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, CompletableFuture<ChunkFrames>> eldest) {
+                return size() > maxCachedChunks;
+            }
+        };
+    }
+
+    CompletableFuture<ChunkFrames> chunk(int chunkX, int chunkZ) {
+        long key = (long) chunkX << 32 | (chunkZ & 0xFFFF_FFFFL);
+        synchronized (chunks) {
+            CompletableFuture<ChunkFrames> chunk = chunks.get(key);
+            if (chunk == null) {
+                chunk = CompletableFuture.supplyAsync(() -> encode(chunkX, chunkZ));
+                chunks.put(key, chunk);
+            }
+            return chunk;
+        }
+    }
+
+    private ChunkFrames encode(int chunkX, int chunkZ) {
+        PacketWriter out = new PacketWriter(1 << 14, false);
+        try {
+            ByteBuffer nbt = readChunk(chunkX, chunkZ);
+            ChunkVisitor chunk = new ChunkVisitor();
+            if (nbt != null) {
+                NbtIo.readRootCompound(nbt, chunk);
+            }
+            if (nbt != null && chunk.full) {
+                chunk.write(out, chunkX, chunkZ);
+            } else {
+                ChunkEncoder.writeChunk(out, chunkX, chunkZ, emptySections);
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[Kimmoke] Sending chunk " + chunkX + ", " + chunkZ + " empty, it failed to load from " + regionDirectory + ": " + e);
+            out = new PacketWriter(1 << 10, false);
+            ChunkEncoder.writeChunk(out, chunkX, chunkZ, emptySections);
+        }
+        return ChunkFrames.of(out.take(), compression == null ? null : compression.get());
+    }
+
+    private ByteBuffer readChunk(int chunkX, int chunkZ) throws IOException {
+        ByteBuffer region = region(chunkX >> 5, chunkZ >> 5);
+        if (region.capacity() < REGION_HEADER_SIZE) {
+            return null;
+        }
+        int location = region.getInt(((chunkX & 31) + (chunkZ & 31) * 32) * 4);
+        long offset = (long) (location >>> 8) * SECTOR_SIZE;
+        if (offset == 0L || offset + 5 > region.capacity()) {
+            return null;
+        }
+        int length = region.getInt((int) offset);
+        if (length <= 1 || offset + 4 + length > region.capacity()) {
+            throw new IOException("Corrupt chunk header");
+        }
+        int compression = region.get((int) offset + 4);
+        ByteBuffer payload = region.slice((int) offset + 5, length - 1);
+        return switch (compression) {
+            case COMPRESSION_ZLIB -> inflate(payload);
+            case COMPRESSION_GZIP -> {
+                byte[] bytes = new byte[payload.remaining()];
+                payload.get(bytes);
+                yield NbtIo.readCompressed(new ByteArrayInputStream(bytes));
+            }
+            case COMPRESSION_NONE -> payload;
+            default -> throw new IOException("Unsupported chunk compression: " + compression);
+        };
+    }
+
+    private ByteBuffer region(int regionX, int regionZ) throws IOException {
+        long key = (long) regionX << 32 | (regionZ & 0xFFFF_FFFFL);
+        synchronized (regions) {
+            ByteBuffer region = regions.get(key);
+            if (region != null) {
+                return region;
+            }
+        }
+
+        ByteBuffer region = MISSING_REGION;
+        Path path = regionDirectory.resolve("r." + regionX + "." + regionZ + ".mca");
+        if (Files.isRegularFile(path)) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                region = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+        synchronized (regions) {
+            ByteBuffer raced = regions.putIfAbsent(key, region);
+            return raced != null ? raced : region;
+        }
+    }
+
+    private static ByteBuffer inflate(ByteBuffer payload) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(payload);
+            byte[] output = new byte[Math.max(1 << 12, payload.remaining() * 4)];
+            int length = 0;
+            while (!inflater.finished()) {
+                if (length == output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+                int inflated = inflater.inflate(output, length, output.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated chunk data");
+                }
+                length += inflated;
+            }
+            return ByteBuffer.wrap(output, 0, length);
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt chunk data", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private final class ChunkVisitor implements NbtIo.CompoundVisitor {
+        private final long[][] heightmaps = new long[6][];
+        private final SectionVisitor[] sections = new SectionVisitor[LIGHT_SECTION_COUNT];
+        private final PacketWriter blockEntities = new PacketWriter(1 << 10, false);
+        private int blockEntityCount = 0;
+        private boolean full = true;
+
+        @Override
+        public void visit(String name, int type, ByteBuffer payload) throws IOException {
+            switch (name) {
+                case "Level" -> throw new IOException("Chunks saved before 1.18 are not supported");
+                case "Status" -> full = type == NbtIo.TAG_STRING && NbtIo.readString(payload).endsWith(FULL_STATUS);
+                case "sections" -> NbtIo.readList(payload, (index, elementType, section) -> {
+                    SectionVisitor visitor = new SectionVisitor();
+                    NbtIo.readCompound(section, visitor);
+                    int lightIndex = visitor.y - MIN_SECTION + 1;
+                    if (lightIndex >= 0 && lightIndex < LIGHT_SECTION_COUNT) {
+                        sections[lightIndex] = visitor;
+                    }
+                });
+                case "Heightmaps" -> NbtIo.readCompound(payload, (heightmap, heightmapType, values) -> {
+                    Integer id = CLIENT_HEIGHTMAPS.get(heightmap);
+                    if (id != null && heightmapType == NbtIo.TAG_LONG_ARRAY) {
+                        heightmaps[id] = NbtIo.readLongArray(values);
+                    }
+                });
+                case "block_entities" -> NbtIo.readList(payload, (index, elementType, blockEntity) -> readBlockEntity(blockEntity));
+                default -> {
+                }
+            }
+        }
+
+        private void readBlockEntity(ByteBuffer in) throws IOException {
+            NbtWriter data = new NbtWriter(256);
+            data.writeByte(NbtIo.TAG_COMPOUND);
+            String[] id = new String[1];
+            int[] position = new int[3];
+            NbtIo.readCompound(in, (name, type, payload) -> {
+                switch (name) {
+                    case "id" -> id[0] = NbtIo.readString(payload);
+                    case "x" -> position[0] = payload.getInt();
+                    case "y" -> position[1] = payload.getInt();
+                    case "z" -> position[2] = payload.getInt();
+                    case "keepPacked" -> {
+                    }
+                    default -> {
+                        data.writeTagHeader(type, name);
+                        data.copyPayload(payload, type);
+                    }
+                }
+            });
+            data.writeEnd();
+
+            int type = id[0] == null ? -1 : blocks.blockEntityType(id[0]);
+            if (type < 0) {
+                return;
+            }
+            blockEntities.writeByte((position[0] & 15) << 4 | (position[2] & 15));
+            blockEntities.writeShort(position[1]);
+            blockEntities.writeVarInt(type);
+            blockEntities.writeBytes(data.take());
+            blockEntityCount++;
+        }
+
+        private void write(PacketWriter out, int chunkX, int chunkZ) {
+            out.begin(ChunkEncoder.PLAY_C_MAP_CHUNK);
+            out.writeInt(chunkX);
+            out.writeInt(chunkZ);
+
+            int heightmapCount = 0;
+            for (long[] heightmap : heightmaps) {
+                heightmapCount += heightmap != null ? 1 : 0;
+            }
+            out.writeVarInt(heightmapCount);
+            for (int id = 0; id < heightmaps.length; id++) {
+                if (heightmaps[id] != null) {
+                    out.writeVarInt(id);
+                    out.writeVarInt(heightmaps[id].length);
+                    for (long value : heightmaps[id]) {
+                        out.writeLong(value);
+                    }
+                }
+            }
+
+            PacketWriter sectionData = new PacketWriter(1 << 12, false);
+            for (int i = 1; i <= ChunkEncoder.SECTION_COUNT; i++) {
+                SectionVisitor section = sections[i];
+                int[] states = section != null && section.states != null && section.states.length > 0 ? section.states : new int[] {0};
+                long[] stateData = section != null ? section.stateData : null;
+                int[] biomeIds = section != null && section.biomes != null && section.biomes.length > 0 ? section.biomes : new int[] {defaultBiome};
+                long[] biomeData = section != null ? section.biomeData : null;
+                sectionData.writeShort(BLOCKS_PER_SECTION - ChunkEncoder.countEntries(states, stateData, BLOCKS_PER_SECTION, blocks.airStates()));
+                ChunkEncoder.writeContainer(sectionData, states, stateData, BLOCKS_PER_SECTION, 4, 8, blocks.stateBits());
+                ChunkEncoder.writeContainer(sectionData, biomeIds, biomeData, BIOMES_PER_SECTION, 1, 3, biomeBits);
+            }
+            ByteBuffer encodedSections = sectionData.takeRaw();
+            out.writeVarInt(encodedSections.remaining());
+            out.writeBytes(encodedSections);
+
+            out.writeVarInt(blockEntityCount);
+            out.writeBytes(blockEntities.takeRaw());
+
+            long skyMask = 0L;
+            long blockMask = 0L;
+            for (int i = 0; i < LIGHT_SECTION_COUNT; i++) {
+                if (sections[i] != null && sections[i].skyLight != null) {
+                    skyMask |= 1L << i;
+                }
+                if (sections[i] != null && sections[i].blockLight != null) {
+                    blockMask |= 1L << i;
+                }
+            }
+            writeMask(out, skyMask);
+            writeMask(out, blockMask);
+            writeMask(out, 0L);
+            writeMask(out, 0L);
+            writeLight(out, skyMask, true);
+            writeLight(out, blockMask, false);
+            out.end();
+        }
+
+        private void writeLight(PacketWriter out, long mask, boolean sky) {
+            out.writeVarInt(Long.bitCount(mask));
+            for (int i = 0; i < LIGHT_SECTION_COUNT; i++) {
+                if ((mask & 1L << i) != 0L) {
+                    byte[] light = sky ? sections[i].skyLight : sections[i].blockLight;
+                    out.writeVarInt(light.length);
+                    out.writeBytes(light);
+                }
+            }
+        }
+
+        private static void writeMask(PacketWriter out, long mask) {
+            if (mask == 0L) {
+                out.writeVarInt(0);
+                return;
+            }
+            out.writeVarInt(1);
+            out.writeLong(mask);
+        }
+    }
+
+    private final class SectionVisitor implements NbtIo.CompoundVisitor {
+        private int y;
+        private int[] states;
+        private long[] stateData;
+        private int[] biomes;
+        private long[] biomeData;
+        private byte[] skyLight;
+        private byte[] blockLight;
+
+        @Override
+        public void visit(String name, int type, ByteBuffer payload) throws IOException {
+            switch (name) {
+                case "Y" -> y = payload.get();
+                case "block_states" -> NbtIo.readCompound(payload, (field, fieldType, value) -> {
+                    if (field.equals("palette")) {
+                        states = readStatePalette(value);
+                    } else if (field.equals("data")) {
+                        stateData = NbtIo.readLongArray(value);
+                    }
+                });
+                case "biomes" -> NbtIo.readCompound(payload, (field, fieldType, value) -> {
+                    if (field.equals("palette")) {
+                        biomes = readBiomePalette(value);
+                    } else if (field.equals("data")) {
+                        biomeData = NbtIo.readLongArray(value);
+                    }
+                });
+                case "SkyLight" -> skyLight = readLight(payload);
+                case "BlockLight" -> blockLight = readLight(payload);
+                default -> {
+                }
+            }
+        }
+
+        private int[] readStatePalette(ByteBuffer in) throws IOException {
+            int[] palette = new int[in.getInt(in.position() + 1)];
+            NbtIo.readList(in, (index, elementType, entry) -> {
+                String[] name = new String[1];
+                TreeMap<String, String> properties = new TreeMap<>();
+                NbtIo.readCompound(entry, (field, fieldType, value) -> {
+                    if (field.equals("Name")) {
+                        name[0] = NbtIo.readString(value);
+                    } else if (field.equals("Properties")) {
+                        NbtIo.readCompound(value, (property, propertyType, propertyValue) -> {
+                            if (propertyType == NbtIo.TAG_STRING) {
+                                properties.put(property, NbtIo.readString(propertyValue));
+                            }
+                        });
+                    }
+                });
+                palette[index] = name[0] == null ? 0 : blocks.stateId(name[0], properties);
+            });
+            return palette;
+        }
+
+        private int[] readBiomePalette(ByteBuffer in) throws IOException {
+            int[] palette = new int[in.getInt(in.position() + 1)];
+            NbtIo.readList(in, (index, elementType, entry) ->
+                palette[index] = elementType == NbtIo.TAG_STRING ? AnvilWorld.this.biomes.getOrDefault(NbtIo.readString(entry), defaultBiome) : defaultBiome);
+            return palette;
+        }
+
+        private static byte[] readLight(ByteBuffer in) throws IOException {
+            byte[] light = NbtIo.readByteArray(in);
+            return light.length == LIGHT_ARRAY_SIZE ? light : null;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package eu.mikart.kimmoke.server;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+final class BlockRegistry {
+    static final String BLOCKS_REPORT = "blocks.json";
+    static final String REGISTRIES_REPORT = "registries.json";
+
+    private static final String BLOCK_ENTITY_TYPE_REGISTRY = "minecraft:block_entity_type";
+    private static final Set<String> AIR_BLOCKS = Set.of("minecraft:air", "minecraft:cave_air", "minecraft:void_air");
+
+    private final Map<String, Integer> states;
+    private final Map<String, Integer> defaults;
+    private final BitSet air;
+    private final int stateBits;
+    private final Map<String, Integer> blockEntityTypes;
+
+    private BlockRegistry(Map<String, Integer> states, Map<String, Integer> defaults, BitSet air, int stateCount, Map<String, Integer> blockEntityTypes) {
+        this.states = states;
+        this.defaults = defaults;
+        this.air = air;
+        this.stateBits = ChunkEncoder.ceilLog2(stateCount);
+        this.blockEntityTypes = blockEntityTypes;
+    }
+
+    @SuppressWarnings("unchecked")
+    static BlockRegistry load(Path reports) {
+        Map<String, Object> blocks = (Map<String, Object>) readReport(reports.resolve(BLOCKS_REPORT));
+        Map<String, Object> registries = (Map<String, Object>) readReport(reports.resolve(REGISTRIES_REPORT));
+
+        Map<String, Integer> states = new HashMap<>();
+        Map<String, Integer> defaults = new HashMap<>();
+        BitSet air = new BitSet();
+        int stateCount = 0;
+        for (Map.Entry<String, Object> block : blocks.entrySet()) {
+            String name = block.getKey();
+            for (Object element : (List<Object>) ((Map<String, Object>) block.getValue()).get("states")) {
+                Map<String, Object> state = (Map<String, Object>) element;
+                int id = ((Number) state.get("id")).intValue();
+                Map<String, Object> properties = (Map<String, Object>) state.getOrDefault("properties", Map.of());
+                states.put(key(name, new TreeMap<>(properties)), id);
+                if (Boolean.TRUE.equals(state.get("default"))) {
+                    defaults.put(name, id);
+                }
+                if (AIR_BLOCKS.contains(name)) {
+                    air.set(id);
+                }
+                stateCount = Math.max(stateCount, id + 1);
+            }
+        }
+
+        Map<String, Integer> blockEntityTypes = new HashMap<>();
+        Map<String, Object> registry = (Map<String, Object>) registries.get(BLOCK_ENTITY_TYPE_REGISTRY);
+        if (registry == null) {
+            throw new IllegalStateException(REGISTRIES_REPORT + " has no " + BLOCK_ENTITY_TYPE_REGISTRY + " registry");
+        }
+        for (Map.Entry<String, Object> entry : ((Map<String, Object>) registry.get("entries")).entrySet()) {
+            blockEntityTypes.put(entry.getKey(), ((Number) ((Map<String, Object>) entry.getValue()).get("protocol_id")).intValue());
+        }
+        return new BlockRegistry(states, defaults, air, stateCount, blockEntityTypes);
+    }
+
+    int stateId(String name, SortedMap<String, ?> properties) {
+        Integer id = properties.isEmpty() ? null : states.get(key(name, properties));
+        if (id == null) {
+            id = defaults.get(name);
+        }
+        return id == null ? 0 : id;
+    }
+
+    BitSet airStates() {
+        return air;
+    }
+
+    int stateBits() {
+        return stateBits;
+    }
+
+    int blockEntityType(String id) {
+        return blockEntityTypes.getOrDefault(id, -1);
+    }
+
+    private static String key(String name, SortedMap<String, ?> properties) {
+        if (properties.isEmpty()) {
+            return name;
+        }
+        StringBuilder key = new StringBuilder(name).append('[');
+        for (Map.Entry<String, ?> property : properties.entrySet()) {
+            if (key.charAt(key.length() - 1) != '[') {
+                key.append(',');
+            }
+            key.append(property.getKey()).append('=').append(property.getValue());
+        }
+        return key.append(']').toString();
+    }
+
+    private static Object readReport(Path path) {
+        try {
+            return JsonReader.parse(Files.readString(path));
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read " + path, e);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package eu.mikart.kimmoke.server;
+
+import java.nio.ByteBuffer;
+import java.util.function.Predicate;
+
+record Broadcast(ByteBuffer frames, ByteBuffer compressedFrames, Predicate<? super Connection> filter) {
+    static final Predicate<Connection> PLAYING = connection -> connection.state == ConnectionState.PLAY;
+
+    private static final int PLAY_C_BOSS_EVENT = 0x09;
+    private static final int PLAY_C_SET_ACTION_BAR_TEXT = 0x55;
+    private static final int PLAY_C_SET_SUBTITLE_TEXT = 0x6E;
+    private static final int PLAY_C_SET_TITLE_TEXT = 0x70;
+    private static final int PLAY_C_SET_TITLES_ANIMATION = 0x71;
+    private static final int PLAY_C_SYSTEM_CHAT = 0x77;
+    private static final int BOSS_BAR_ADD = 0;
+    private static final int BOSS_BAR_REMOVE = 1;
+    private static final int BOSS_BAR_YELLOW = 4;
+    private static final int BOSS_BAR_NO_NOTCHES = 0;
+    private static final long BOSS_BAR_UUID_MOST = 0x4B69_6D6D_6F6B_4542L;
+    private static final long BOSS_BAR_UUID_LEAST = 0x8000_0000_0000_0001L;
+
+    static Broadcast encode(ByteBuffer frames, PacketCompression precompression, Predicate<? super Connection> filter) {
+        ByteBuffer compressed = null;
+        if (precompression != null) {
+            synchronized (precompression) {
+                compressed = precompression.compressFrames(frames, true).asReadOnlyBuffer();
+            }
+        }
+        return new Broadcast(frames.asReadOnlyBuffer(), compressed, filter);
+    }
+
+    static Predicate<Connection> playing(Predicate<? super Player> filter) {
+        return connection -> connection.state == ConnectionState.PLAY && filter.test(connection);
+    }
+
+    ByteBuffer frames(boolean compressed) {
+        return compressed ? compressedFrames : frames;
+    }
+
+    static ByteBuffer chat(String message) {
+        PacketWriter out = new PacketWriter(64 + message.length() * 3, true);
+        out.begin(PLAY_C_SYSTEM_CHAT);
+        out.writeText(message);
+        out.writeBoolean(false);
+        out.end();
+        return out.take();
+    }
+
+    static ByteBuffer actionBar(String message) {
+        PacketWriter out = new PacketWriter(64 + message.length() * 3, true);
+        writeActionBar(out, message);
+        return out.take();
+    }
+
+    static void writeActionBar(PacketWriter out, String message) {
+        out.begin(PLAY_C_SET_ACTION_BAR_TEXT);
+        out.writeText(message);
+        out.end();
+    }
+
+    static ByteBuffer title(String title, String subtitle, int fadeInTicks, int stayTicks, int fadeOutTicks) {
+        PacketWriter out = new PacketWriter(64 + (title.length() + subtitle.length()) * 3, true);
+        out.begin(PLAY_C_SET_TITLES_ANIMATION);
+        out.writeInt(fadeInTicks);
+        out.writeInt(stayTicks);
+        out.writeInt(fadeOutTicks);
+        out.end();
+
+        out.begin(PLAY_C_SET_SUBTITLE_TEXT);
+        out.writeText(subtitle);
+        out.end();
+
+        out.begin(PLAY_C_SET_TITLE_TEXT);
+        out.writeText(title);
+        out.end();
+        return out.take();
+    }
+
+    static ByteBuffer showBossBar(String title, float progress) {
+        PacketWriter out = new PacketWriter(64 + title.length() * 3, true);
+        out.begin(PLAY_C_BOSS_EVENT);
+        out.writeUuid(BOSS_BAR_UUID_MOST, BOSS_BAR_UUID_LEAST);
+        out.writeVarInt(BOSS_BAR_ADD);
+        out.writeText(title);
+        out.writeFloat(Math.max(0f, Math.min(1f, progress)));
+        out.writeVarInt(BOSS_BAR_YELLOW);
+        out.writeVarInt(BOSS_BAR_NO_NOTCHES);
+        out.writeByte(0);
+        out.end();
+        return out.take();
+    }
+
+    static ByteBuffer hideBossBar() {
+        PacketWriter out = new PacketWriter(32, true);
+        out.begin(PLAY_C_BOSS_EVENT);
+        out.writeUuid(BOSS_BAR_UUID_MOST, BOSS_BAR_UUID_LEAST);
+        out.writeVarInt(BOSS_BAR_REMOVE);
+        out.end();
+        return out.take();
+    }
+}
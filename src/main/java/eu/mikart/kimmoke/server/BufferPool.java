@@ -0,0 +1,116 @@
+package eu.mikart.kimmoke.server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+final class BufferPool {
+    private static final int[] SIZE_CLASSES = {1 << 12, 1 << 14, 1 << 16, 1 << 18, 1 << 20, 1 << 21};
+    private static final int SLAB_SIZE = 1 << 20;
+    private static final int SLAB_CLASSES = 2;
+
+    private final ArrayDeque<ByteBuffer>[] free;
+    private final long maxRetainedBytes;
+    private final AtomicIntegerArray inUse = new AtomicIntegerArray(SIZE_CLASSES.length);
+    private final AtomicIntegerArray pooled = new AtomicIntegerArray(SIZE_CLASSES.length);
+    private final AtomicLong directBytes = new AtomicLong();
+    private long retainedBytes = 0L;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    BufferPool(long maxRetainedBytes) {
+        this.maxRetainedBytes = maxRetainedBytes;
+        this.free = new ArrayDeque[SIZE_CLASSES.length];
+        for (int i = 0; i < free.length; i++) {
+            free[i] = new ArrayDeque<>();
+        }
+    }
+
+    static int minCapacity() {
+        return SIZE_CLASSES[0];
+    }
+
+    static int maxCapacity() {
+        return SIZE_CLASSES[SIZE_CLASSES.length - 1];
+    }
+
+    ByteBuffer acquire(int minCapacity) {
+        int sizeClass = sizeClassFor(minCapacity);
+        if (sizeClass < 0) {
+            throw new IllegalArgumentException("Buffer too large: " + minCapacity);
+        }
+
+        ByteBuffer buffer = free[sizeClass].poll();
+        if (buffer == null) {
+            buffer = allocate(sizeClass);
+        } else {
+            pooled.decrementAndGet(sizeClass);
+            retainedBytes -= buffer.capacity();
+        }
+        inUse.incrementAndGet(sizeClass);
+        return buffer.clear();
+    }
+
+    void release(ByteBuffer buffer) {
+        int sizeClass = sizeClassFor(buffer.capacity());
+        if (sizeClass < 0 || SIZE_CLASSES[sizeClass] != buffer.capacity()) {
+            throw new IllegalArgumentException("Buffer does not belong to this pool");
+        }
+        inUse.decrementAndGet(sizeClass);
+
+        if (retainedBytes + buffer.capacity() > maxRetainedBytes) {
+            directBytes.addAndGet(-buffer.capacity());
+            return;
+        }
+        retainedBytes += buffer.capacity();
+        free[sizeClass].push(buffer.clear());
+        pooled.incrementAndGet(sizeClass);
+    }
+
+    private ByteBuffer allocate(int sizeClass) {
+        int size = SIZE_CLASSES[sizeClass];
+        if (sizeClass >= SLAB_CLASSES) {
+            directBytes.addAndGet(size);
+            return ByteBuffer.allocateDirect(size);
+        }
+
+        ByteBuffer slab = ByteBuffer.allocateDirect(SLAB_SIZE);
+        directBytes.addAndGet(SLAB_SIZE);
+        for (int offset = size; offset < SLAB_SIZE; offset += size) {
+            free[sizeClass].push(slab.slice(offset, size));
+            pooled.incrementAndGet(sizeClass);
+            retainedBytes += size;
+        }
+        return slab.slice(0, size);
+    }
+
+    private static int sizeClassFor(int capacity) {
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            if (SIZE_CLASSES[i] >= capacity) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static String report(EventLoop[] loops) {
+        StringBuilder builder = new StringBuilder("buffers=[");
+        long direct = 0L;
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            int used = 0;
+            int idle = 0;
+            for (EventLoop loop : loops) {
+                used += loop.bufferPool().inUse.get(i);
+                idle += loop.bufferPool().pooled.get(i);
+            }
+            if (i > 0) {
+                builder.append(' ');
+            }
+            builder.append(SIZE_CLASSES[i] >> 10).append("K:").append(used).append('/').append(idle);
+        }
+        for (EventLoop loop : loops) {
+            direct += loop.bufferPool().directBytes.get();
+        }
+        return builder.append("] direct=").append(direct >> 20).append("MiB").toString();
+    }
+}
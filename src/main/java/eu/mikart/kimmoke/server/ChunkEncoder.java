@@ -0,0 +1,127 @@
+package eu.mikart.kimmoke.server;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+final class ChunkEncoder {
+    static final int SECTION_COUNT = 24;
+    static final int PLAY_C_MAP_CHUNK = 0x2C;
+
+    private static final int AIR = 0;
+
+    private ChunkEncoder() {
+    }
+
+    static ByteBuffer emptySections(int biomeId) {
+        PacketWriter out = new PacketWriter(SECTION_COUNT * 8, false);
+        for (int i = 0; i < SECTION_COUNT; i++) {
+            out.writeShort(0);
+            writeSingleValue(out, AIR);
+            writeSingleValue(out, biomeId);
+        }
+        return out.takeRaw().asReadOnlyBuffer();
+    }
+
+    static void writeChunk(PacketWriter out, int chunkX, int chunkZ, ByteBuffer sections) {
+        out.begin(PLAY_C_MAP_CHUNK);
+        out.writeInt(chunkX);
+        out.writeInt(chunkZ);
+        out.writeVarInt(0);
+        out.writeVarInt(sections.remaining());
+        out.writeBytes(sections);
+        out.writeVarInt(0);
+
+        out.writeVarInt(0);
+        out.writeVarInt(0);
+        out.writeVarInt(0);
+        out.writeVarInt(0);
+        out.writeVarInt(0);
+        out.writeVarInt(0);
+        out.end();
+    }
+
+    static void writeContainer(PacketWriter out, int[] palette, long[] data, int entries, int minBits, int maxBits, int globalBits) {
+        if (palette.length == 1) {
+            writeSingleValue(out, palette[0]);
+            return;
+        }
+
+        int storedBits = storedBits(palette.length, data, entries);
+        int paletteBits = Math.max(minBits, ceilLog2(palette.length));
+        if (paletteBits > maxBits) {
+            out.writeByte(globalBits);
+            writeLongs(out, repack(data, storedBits, globalBits, entries, palette));
+            return;
+        }
+
+        out.writeByte(paletteBits);
+        out.writeVarInt(palette.length);
+        for (int id : palette) {
+            out.writeVarInt(id);
+        }
+        writeLongs(out, paletteBits == storedBits ? data : repack(data, storedBits, paletteBits, entries, null));
+    }
+
+    static int countEntries(int[] palette, long[] data, int entries, BitSet matching) {
+        if (palette.length == 1) {
+            return matching.get(palette[0]) ? entries : 0;
+        }
+        int bits = storedBits(palette.length, data, entries);
+        int perLong = 64 / bits;
+        long mask = (1L << bits) - 1;
+        int count = 0;
+        for (int i = 0; i < entries; i++) {
+            int index = (int) (data[i / perLong] >>> (i % perLong * bits) & mask);
+            if (index >= palette.length) {
+                throw new IllegalStateException("Palette index out of range: " + index);
+            }
+            if (matching.get(palette[index])) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    static int ceilLog2(int value) {
+        return 32 - Integer.numberOfLeadingZeros(value - 1);
+    }
+
+    private static int storedBits(int paletteSize, long[] data, int entries) {
+        for (int bits = Math.max(1, ceilLog2(paletteSize)); bits <= 32; bits++) {
+            int perLong = 64 / bits;
+            if ((entries + perLong - 1) / perLong == data.length) {
+                return bits;
+            }
+        }
+        throw new IllegalStateException("Paletted data of " + data.length + " longs does not fit " + paletteSize + " entries");
+    }
+
+    private static long[] repack(long[] data, int bits, int newBits, int entries, int[] palette) {
+        int perLong = 64 / bits;
+        int newPerLong = 64 / newBits;
+        long mask = (1L << bits) - 1;
+        long[] packed = new long[(entries + newPerLong - 1) / newPerLong];
+        for (int i = 0; i < entries; i++) {
+            int value = (int) (data[i / perLong] >>> (i % perLong * bits) & mask);
+            if (palette != null) {
+                if (value >= palette.length) {
+                    throw new IllegalStateException("Palette index out of range: " + value);
+                }
+                value = palette[value];
+            }
+            packed[i / newPerLong] |= (long) value << (i % newPerLong * newBits);
+        }
+        return packed;
+    }
+
+    private static void writeLongs(PacketWriter out, long[] values) {
+        for (long value : values) {
+            out.writeLong(value);
+        }
+    }
+
+    private static void writeSingleValue(PacketWriter out, int value) {
+        out.writeByte(0);
+        out.writeVarInt(value);
+    }
+}
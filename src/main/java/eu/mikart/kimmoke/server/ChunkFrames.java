@@ -0,0 +1,45 @@
+package eu.mikart.kimmoke.server;
+
+import java.nio.ByteBuffer;
+
+record ChunkFrames(ByteBuffer frames, ByteBuffer compressedFrames) {
+    static ChunkFrames of(ByteBuffer frames, PacketCompression precompression) {
+        ByteBuffer direct = ByteBuffer.allocateDirect(frames.remaining()).put(frames.duplicate()).flip();
+        ByteBuffer compressed = precompression == null ? null : precompression.compressFrames(direct, true).asReadOnlyBuffer();
+        return new ChunkFrames(direct.asReadOnlyBuffer(), compressed);
+    }
+
+    static ChunkFrames[] split(ByteBuffer frames, ByteBuffer compressedFrames) {
+        ByteBuffer[] plain = splitFrames(frames);
+        ByteBuffer[] compressed = compressedFrames == null ? null : splitFrames(compressedFrames);
+        ChunkFrames[] chunks = new ChunkFrames[plain.length];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = new ChunkFrames(plain[i], compressed == null ? null : compressed[i]);
+        }
+        return chunks;
+    }
+
+    ByteBuffer frames(boolean compressed) {
+        return compressed ? compressedFrames : frames;
+    }
+
+    private static ByteBuffer[] splitFrames(ByteBuffer frames) {
+        ByteBuffer source = frames.duplicate();
+        int count = 0;
+        while (source.hasRemaining()) {
+            int length = MinecraftCodec.readVarInt(source);
+            source.position(source.position() + length);
+            count++;
+        }
+
+        ByteBuffer[] split = new ByteBuffer[count];
+        source = frames.duplicate();
+        for (int i = 0; i < count; i++) {
+            int start = source.position();
+            int length = MinecraftCodec.readVarInt(source);
+            source.position(source.position() + length);
+            split[i] = frames.slice(start, source.position() - start).asReadOnlyBuffer();
+        }
+        return split;
+    }
+}
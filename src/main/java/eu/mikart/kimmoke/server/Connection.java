@@ -0,0 +1,115 @@
+package eu.mikart.kimmoke.server;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+final class Connection implements Player {
+    final SocketChannel channel;
+    final EventLoop loop;
+
+    SelectionKey key;
+    ByteBuffer readBuffer;
+    ByteBuffer cipherBuffer;
+    PacketCipher cipher;
+    Deque<ByteBuffer> writeQueue;
+    int frameLength = -1;
+    long queuedBytes = 0L;
+    int sharedQueued = 0;
+    ConnectionState state = ConnectionState.HANDSHAKE;
+    String username = "Player";
+    long uuidMost = 0L;
+    long uuidLeast = 0L;
+    boolean hasUuid = false;
+    int velocityQueryId = 0;
+    byte[] verifyToken;
+    boolean verifying = false;
+    boolean loggedIn = false;
+    GameProfile verifiedProfile;
+    boolean verificationFailed = false;
+    List<GameProfile.Property> properties = List.of();
+    boolean closeAfterFlush = false;
+    boolean registriesSent = false;
+    boolean compressed = false;
+    long addressHigh = 0L;
+    long addressLow = 0L;
+    long keepAliveId = 0L;
+    int missedKeepAlives = 0;
+    int latencyMillis = -1;
+    long keepAliveSentAt;
+    long queueTicket = -1L;
+    int nextChunk = -1;
+    boolean chunkLoading = false;
+    Connection timerPrev;
+    Connection timerNext;
+    long timerDeadline = -1L;
+
+    Connection(SocketChannel channel, EventLoop loop) {
+        this.channel = channel;
+        this.loop = loop;
+    }
+
+    @Override
+    public UUID uuid() {
+        return new UUID(uuidMost, uuidLeast);
+    }
+
+    @Override
+    public int latencyMillis() {
+        return latencyMillis;
+    }
+
+    @Override
+    public boolean waitingForTransfer() {
+        return queueTicket >= 0L;
+    }
+
+    void enqueue(ByteBuffer buffer) {
+        if (writeQueue == null) {
+            writeQueue = new ArrayDeque<>();
+        }
+        writeQueue.add(buffer);
+    }
+
+    void releaseReadBuffer() {
+        if (readBuffer != null) {
+            loop.bufferPool().release(readBuffer);
+            readBuffer = null;
+        }
+    }
+
+    void releaseCipherBuffer() {
+        if (cipherBuffer != null) {
+            loop.bufferPool().release(cipherBuffer);
+            cipherBuffer = null;
+        }
+    }
+
+    void hibernate() {
+        releaseReadBuffer();
+        if (writeQueue != null && writeQueue.isEmpty()) {
+            writeQueue = null;
+        }
+        username = null;
+        properties = null;
+    }
+
+    void setUuid(long most, long least) {
+        uuidMost = most;
+        uuidLeast = least;
+        hasUuid = true;
+    }
+
+    void ensureUuid() {
+        if (hasUuid) {
+            return;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        setUuid(random.nextLong() & ~0xF000L | 0x4000L, random.nextLong() & 0x3FFF_FFFF_FFFF_FFFFL | 0x8000_0000_0000_0000L);
+    }
+}
@@ -0,0 +1,10 @@
+package eu.mikart.kimmoke.server;
+
+enum ConnectionState {
+    HANDSHAKE,
+    STATUS,
+    LOGIN,
+    CONFIGURATION,
+    PLAY,
+    CLOSED
+}
@@ -0,0 +1,226 @@
+package eu.mikart.kimmoke.server;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+final class EventLoop implements Runnable {
+    private static final int TIMER_SLOTS = 1024;
+    private static final long TIMER_TICK_MS = 100L;
+
+    private final NioLimboServer server;
+    private final int index;
+    private final Selector selector;
+    private final BufferPool bufferPool;
+    private final PacketCompression compression;
+    private final Mac forwardingMac;
+    private final byte[] forwardingDigest;
+    private final Cipher loginDecryption;
+    private final ByteBuffer readScratch = ByteBuffer.allocateDirect(1 << 16);
+    private final PacketWriter packetWriter = new PacketWriter(1 << 16, false);
+    private final ByteBuffer[] writeBatch = new ByteBuffer[64];
+    private final Queue<Connection> pending = new ConcurrentLinkedQueue<>();
+    private final Queue<Connection> transfers = new ConcurrentLinkedQueue<>();
+    private final Queue<Connection> verified = new ConcurrentLinkedQueue<>();
+    private final Queue<Connection> loadedChunks = new ConcurrentLinkedQueue<>();
+    private final Queue<Broadcast> broadcasts = new ConcurrentLinkedQueue<>();
+    private final List<Broadcast> broadcastBatch = new ArrayList<>();
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private final TimingWheel timers = new TimingWheel(TIMER_SLOTS, TIMER_TICK_MS, System.currentTimeMillis());
+    private final Consumer<Connection> timerExpired;
+
+    long keepAliveTick = -1L;
+    long keepAliveId;
+    ByteBuffer keepAlive;
+    ByteBuffer keepAliveCompressed;
+
+    EventLoop(NioLimboServer server, int index, long maxPooledBufferBytes, PacketCompression compression, Mac forwardingMac, Cipher loginDecryption) throws IOException {
+        this.server = server;
+        this.index = index;
+        this.selector = Selector.open();
+        this.bufferPool = new BufferPool(maxPooledBufferBytes);
+        this.compression = compression;
+        this.forwardingMac = forwardingMac;
+        this.forwardingDigest = forwardingMac != null ? new byte[forwardingMac.getMacLength()] : null;
+        this.loginDecryption = loginDecryption;
+        this.timerExpired = server::timerExpired;
+    }
+
+    int index() {
+        return index;
+    }
+
+    BufferPool bufferPool() {
+        return bufferPool;
+    }
+
+    TimingWheel timers() {
+        return timers;
+    }
+
+    Mac forwardingMac() {
+        return forwardingMac;
+    }
+
+    byte[] forwardingDigest() {
+        return forwardingDigest;
+    }
+
+    Cipher loginDecryption() {
+        return loginDecryption;
+    }
+
+    PacketCompression compression() {
+        return compression;
+    }
+
+    PacketWriter packetWriter() {
+        packetWriter.reset();
+        return packetWriter;
+    }
+
+    ByteBuffer[] writeBatch() {
+        return writeBatch;
+    }
+
+    ByteBuffer readScratch() {
+        return readScratch.clear();
+    }
+
+    int connectionCount() {
+        return connectionCount.get();
+    }
+
+    void register(Connection connection) {
+        connectionCount.incrementAndGet();
+        pending.add(connection);
+        selector.wakeup();
+    }
+
+    void transfer(Connection connection) {
+        transfers.add(connection);
+        selector.wakeup();
+    }
+
+    void chunkLoaded(Connection connection) {
+        loadedChunks.add(connection);
+        selector.wakeup();
+    }
+
+    void sessionVerified(Connection connection) {
+        verified.add(connection);
+        selector.wakeup();
+    }
+
+    void broadcast(Broadcast broadcast) {
+        broadcasts.add(broadcast);
+        selector.wakeup();
+    }
+
+    void connectionClosed() {
+        connectionCount.decrementAndGet();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                selector.select(timers.timeout(System.currentTimeMillis()));
+            } catch (IOException e) {
+                continue;
+            }
+
+            timers.advance(System.currentTimeMillis(), timerExpired);
+            registerPending();
+            releaseTransfers();
+            completeVerifications();
+            resumeChunks();
+            deliverBroadcasts();
+
+            var iterator = selector.selectedKeys().iterator();
+            while (iterator.hasNext()) {
+                SelectionKey key = iterator.next();
+                iterator.remove();
+
+                if (!key.isValid()) {
+                    continue;
+                }
+
+                try {
+                    if (key.isReadable()) {
+                        server.read(key);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        server.write(key);
+                    }
+                } catch (Exception e) {
+                    server.closeKey(key);
+                }
+            }
+        }
+    }
+
+    private void releaseTransfers() {
+        Connection connection;
+        while ((connection = transfers.poll()) != null) {
+            server.transferPlayer(connection);
+        }
+    }
+
+    private void completeVerifications() {
+        Connection connection;
+        while ((connection = verified.poll()) != null) {
+            server.sessionVerified(connection);
+        }
+    }
+
+    private void resumeChunks() {
+        Connection connection;
+        while ((connection = loadedChunks.poll()) != null) {
+            server.chunkLoaded(connection);
+        }
+    }
+
+    private void deliverBroadcasts() {
+        Broadcast broadcast;
+        while ((broadcast = broadcasts.poll()) != null) {
+            broadcastBatch.add(broadcast);
+        }
+        if (broadcastBatch.isEmpty()) {
+            return;
+        }
+        for (SelectionKey key : selector.keys()) {
+            if (key.isValid() && key.attachment() instanceof Connection connection) {
+                server.deliver(connection, broadcastBatch);
+            }
+        }
+        broadcastBatch.clear();
+    }
+
+    private void registerPending() {
+        Connection connection;
+        while ((connection = pending.poll()) != null) {
+            try {
+                connection.key = connection.channel.register(selector, SelectionKey.OP_READ, connection);
+                server.connectionOpened(connection);
+            } catch (Exception e) {
+                connectionClosed();
+                server.releaseAdmission(connection);
+                try {
+                    connection.channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
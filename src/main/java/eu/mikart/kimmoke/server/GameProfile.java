@@ -0,0 +1,9 @@
+package eu.mikart.kimmoke.server;
+
+import java.util.List;
+import java.util.UUID;
+
+public record GameProfile(UUID id, String name, List<Property> properties) {
+    public record Property(String name, String value, String signature) {
+    }
+}
@@ -0,0 +1,62 @@
+package eu.mikart.kimmoke.server;
+
+import javax.crypto.Cipher;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+
+final class LoginEncryption {
+    static final int VERIFY_TOKEN_LENGTH = 4;
+    static final int SHARED_SECRET_LENGTH = 16;
+    static final int KEY_BITS = 1024;
+    static final int ENCRYPTED_LENGTH = KEY_BITS / 8;
+
+    private static final String KEY_ALGORITHM = "RSA";
+    private static final String KEY_TRANSFORMATION = "RSA/ECB/PKCS1Padding";
+    private static final String HASH_ALGORITHM = "SHA-1";
+
+    private final KeyPair keyPair;
+    private final byte[] publicKey;
+
+    private LoginEncryption(KeyPair keyPair) {
+        this.keyPair = keyPair;
+        this.publicKey = keyPair.getPublic().getEncoded();
+    }
+
+    static LoginEncryption generate() {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance(KEY_ALGORITHM);
+            generator.initialize(KEY_BITS);
+            return new LoginEncryption(generator.generateKeyPair());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to generate the " + KEY_ALGORITHM + " key pair", e);
+        }
+    }
+
+    byte[] publicKey() {
+        return publicKey;
+    }
+
+    Cipher createDecryptCipher() {
+        try {
+            Cipher cipher = Cipher.getInstance(KEY_TRANSFORMATION);
+            cipher.init(Cipher.DECRYPT_MODE, keyPair.getPrivate());
+            return cipher;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to initialise " + KEY_TRANSFORMATION, e);
+        }
+    }
+
+    String serverHash(byte[] sharedSecret) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance(HASH_ALGORITHM);
+            digest.update(sharedSecret);
+            digest.update(publicKey);
+            return new BigInteger(digest.digest()).toString(16);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to initialise " + HASH_ALGORITHM, e);
+        }
+    }
+}
@@ -1,11 +1,12 @@
 package eu.mikart.kimmoke.server;
 
-import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.UUID;
 
 final class MinecraftCodec {
+    static final int VARINT_INCOMPLETE = Integer.MIN_VALUE;
+    static final int VARINT_TOO_BIG = Integer.MIN_VALUE + 1;
+
     private MinecraftCodec() {
     }
 
@@ -27,13 +28,21 @@ final class MinecraftCodec {
     }
 
     static int tryReadVarInt(ByteBuffer buffer) {
-        int start = buffer.position();
-        try {
-            return readVarInt(buffer);
-        } catch (IllegalStateException e) {
-            buffer.position(start);
-            return Integer.MIN_VALUE;
+        int position = buffer.position();
+        int limit = buffer.limit();
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (position >= limit) {
+                return VARINT_INCOMPLETE;
+            }
+            byte current = buffer.get(position++);
+            value |= (current & 0x7F) << shift;
+            if ((current & 0x80) == 0) {
+                buffer.position(position);
+                return value;
+            }
         }
+        return VARINT_TOO_BIG;
     }
 
     static String readString(ByteBuffer buffer) {
@@ -46,80 +55,31 @@ final class MinecraftCodec {
         return new String(bytes, StandardCharsets.UTF_8);
     }
 
-    static UUID readUuid(ByteBuffer buffer) {
-        long msb = buffer.getLong();
-        long lsb = buffer.getLong();
-        return new UUID(msb, lsb);
+    static byte[] readByteArray(ByteBuffer buffer, int maxLength) {
+        int length = readVarInt(buffer);
+        if (length < 0 || length > maxLength || length > buffer.remaining()) {
+            throw new IllegalStateException("Invalid byte array length");
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    static void skipString(ByteBuffer buffer) {
+        int length = readVarInt(buffer);
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalStateException("Invalid string length");
+        }
+        buffer.position(buffer.position() + length);
     }
 
-    static void writeVarInt(ByteArrayOutputStream out, int value) {
+    static int varIntSize(int value) {
+        int size = 1;
         int v = value;
         while ((v & ~0x7F) != 0) {
-            out.write((v & 0x7F) | 0x80);
+            size++;
             v >>>= 7;
         }
-        out.write(v);
-    }
-
-    static void writeBoolean(ByteArrayOutputStream out, boolean value) {
-        out.write(value ? 1 : 0);
-    }
-
-    static void writeByte(ByteArrayOutputStream out, int value) {
-        out.write(value & 0xFF);
-    }
-
-    static void writeShort(ByteArrayOutputStream out, int value) {
-        out.write((value >>> 8) & 0xFF);
-        out.write(value & 0xFF);
-    }
-
-    static void writeInt(ByteArrayOutputStream out, int value) {
-        out.write((value >>> 24) & 0xFF);
-        out.write((value >>> 16) & 0xFF);
-        out.write((value >>> 8) & 0xFF);
-        out.write(value & 0xFF);
-    }
-
-    static void writeLong(ByteArrayOutputStream out, long value) {
-        writeInt(out, (int) (value >>> 32));
-        writeInt(out, (int) value);
-    }
-
-    static void writeFloat(ByteArrayOutputStream out, float value) {
-        writeInt(out, Float.floatToIntBits(value));
-    }
-
-    static void writeDouble(ByteArrayOutputStream out, double value) {
-        writeLong(out, Double.doubleToLongBits(value));
-    }
-
-    static void writeString(ByteArrayOutputStream out, String value) {
-        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
-        writeVarInt(out, bytes.length);
-        out.writeBytes(bytes);
-    }
-
-    static void writeUuid(ByteArrayOutputStream out, UUID uuid) {
-        writeLong(out, uuid.getMostSignificantBits());
-        writeLong(out, uuid.getLeastSignificantBits());
-    }
-
-    static void writePosition(ByteArrayOutputStream out, int x, int y, int z) {
-        long packed = ((long) (x & 0x3FFFFFF) << 38)
-            | ((long) (z & 0x3FFFFFF) << 12)
-            | (y & 0xFFFL);
-        writeLong(out, packed);
-    }
-
-    static ByteBuffer framedPacket(int packetId, ByteArrayOutputStream payload) {
-        ByteArrayOutputStream full = new ByteArrayOutputStream(payload.size() + 10);
-        writeVarInt(full, packetId);
-        full.writeBytes(payload.toByteArray());
-
-        ByteArrayOutputStream framed = new ByteArrayOutputStream(full.size() + 5);
-        writeVarInt(framed, full.size());
-        framed.writeBytes(full.toByteArray());
-        return ByteBuffer.wrap(framed.toByteArray());
+        return size;
     }
 }
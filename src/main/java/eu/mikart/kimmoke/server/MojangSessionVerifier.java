@@ -0,0 +1,68 @@
+package eu.mikart.kimmoke.server;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+final class MojangSessionVerifier implements SessionVerifier {
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_NO_CONTENT = 204;
+
+    private final String sessionServer;
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(TIMEOUT).build();
+
+    MojangSessionVerifier(String sessionServer) {
+        this.sessionServer = sessionServer.endsWith("/") ? sessionServer.substring(0, sessionServer.length() - 1) : sessionServer;
+    }
+
+    @Override
+    public GameProfile hasJoined(String username, String serverHash) throws IOException {
+        URI uri = URI.create(sessionServer + "/session/minecraft/hasJoined?username=" + URLEncoder.encode(username, StandardCharsets.UTF_8)
+            + "&serverId=" + URLEncoder.encode(serverHash, StandardCharsets.UTF_8));
+        HttpResponse<String> response;
+        try {
+            response = client.send(HttpRequest.newBuilder(uri).timeout(TIMEOUT).GET().build(), HttpResponse.BodyHandlers.ofString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while verifying " + username, e);
+        }
+        if (response.statusCode() == HTTP_NO_CONTENT) {
+            return null;
+        }
+        if (response.statusCode() != HTTP_OK) {
+            throw new IOException("Session server answered " + response.statusCode() + " for " + username);
+        }
+        return parseProfile(response.body());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static GameProfile parseProfile(String body) throws IOException {
+        try {
+            Map<String, Object> profile = (Map<String, Object>) JsonReader.parse(body);
+            String id = (String) profile.get("id");
+            String name = (String) profile.get("name");
+            if (id == null || id.length() != 32 || name == null) {
+                throw new IOException("Session server returned a malformed profile");
+            }
+            List<GameProfile.Property> properties = new ArrayList<>();
+            for (Object element : (List<Object>) profile.getOrDefault("properties", List.of())) {
+                Map<String, Object> property = (Map<String, Object>) element;
+                properties.add(new GameProfile.Property((String) property.get("name"), (String) property.get("value"), (String) property.get("signature")));
+            }
+            UUID uuid = new UUID(Long.parseUnsignedLong(id, 0, 16, 16), Long.parseUnsignedLong(id, 16, 32, 16));
+            return new GameProfile(uuid, name, List.copyOf(properties));
+        } catch (IllegalStateException | ClassCastException | NumberFormatException e) {
+            throw new IOException("Session server returned a malformed profile", e);
+        }
+    }
+}
@@ -1,188 +1,160 @@
 package eu.mikart.kimmoke.server;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.LinkedHashMap;
-import java.util.List;
-import java.util.Map;
 import java.util.zip.GZIPInputStream;
 
 final class NbtIo {
+    static final int TAG_END = 0;
+    static final int TAG_BYTE = 1;
+    static final int TAG_SHORT = 2;
+    static final int TAG_INT = 3;
+    static final int TAG_LONG = 4;
+    static final int TAG_FLOAT = 5;
+    static final int TAG_DOUBLE = 6;
+    static final int TAG_BYTE_ARRAY = 7;
+    static final int TAG_STRING = 8;
+    static final int TAG_LIST = 9;
+    static final int TAG_COMPOUND = 10;
+    static final int TAG_INT_ARRAY = 11;
+    static final int TAG_LONG_ARRAY = 12;
+
     private NbtIo() {
     }
 
-    static Map<String, Tag> readCompressedRootCompound(InputStream input) throws IOException {
-        try (DataInputStream data = new DataInputStream(new GZIPInputStream(input))) {
-            int rootType = data.readUnsignedByte();
-            if (rootType != 10) {
-                throw new IOException("Expected root compound, got type " + rootType);
-            }
-            readString(data);
-            return readCompoundPayload(data);
+    static ByteBuffer readCompressed(InputStream input) throws IOException {
+        try (GZIPInputStream gzip = new GZIPInputStream(input)) {
+            return ByteBuffer.wrap(gzip.readAllBytes());
         }
     }
 
-    static byte[] writeUnnamed(Tag tag) {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        out.write(tag.type() & 0xFF);
-        writePayload(out, tag);
-        return out.toByteArray();
+    static void readRootCompound(ByteBuffer in, CompoundVisitor visitor) throws IOException {
+        int rootType = in.get() & 0xFF;
+        if (rootType != TAG_COMPOUND) {
+            throw new IOException("Expected root compound, got type " + rootType);
+        }
+        skipString(in);
+        readCompound(in, visitor);
     }
 
-    private static Map<String, Tag> readCompoundPayload(DataInputStream in) throws IOException {
-        Map<String, Tag> values = new LinkedHashMap<>();
+    static void readCompound(ByteBuffer in, CompoundVisitor visitor) throws IOException {
         while (true) {
-            int type = in.readUnsignedByte();
-            if (type == 0) {
-                return values;
+            int type = in.get() & 0xFF;
+            if (type == TAG_END) {
+                return;
             }
             String name = readString(in);
-            Object payload = readPayload(in, type);
-            values.put(name, new Tag((byte) type, payload));
+            int start = in.position();
+            visitor.visit(name, type, in);
+            if (in.position() == start) {
+                skip(in, type);
+            }
         }
     }
 
-    private static Object readPayload(DataInputStream in, int type) throws IOException {
-        return switch (type) {
-            case 1 -> in.readByte();
-            case 2 -> in.readShort();
-            case 3 -> in.readInt();
-            case 4 -> in.readLong();
-            case 5 -> in.readFloat();
-            case 6 -> in.readDouble();
-            case 7 -> {
-                int length = in.readInt();
-                byte[] bytes = new byte[length];
-                in.readFully(bytes);
-                yield bytes;
-            }
-            case 8 -> readString(in);
-            case 9 -> {
-                int elementType = in.readUnsignedByte();
-                int length = in.readInt();
-                List<Object> values = new ArrayList<>(length);
-                for (int i = 0; i < length; i++) {
-                    values.add(readPayload(in, elementType));
-                }
-                yield new ListTag((byte) elementType, values);
-            }
-            case 10 -> readCompoundPayload(in);
-            case 11 -> {
-                int length = in.readInt();
-                int[] values = new int[length];
-                for (int i = 0; i < length; i++) {
-                    values[i] = in.readInt();
-                }
-                yield values;
+    static void readList(ByteBuffer in, ListVisitor visitor) throws IOException {
+        int elementType = in.get() & 0xFF;
+        int length = in.getInt();
+        for (int i = 0; i < length; i++) {
+            int start = in.position();
+            visitor.visit(i, elementType, in);
+            if (in.position() == start) {
+                skip(in, elementType);
             }
-            case 12 -> {
-                int length = in.readInt();
-                long[] values = new long[length];
-                for (int i = 0; i < length; i++) {
-                    values[i] = in.readLong();
-                }
-                yield values;
-            }
-            default -> throw new IOException("Unsupported NBT type: " + type);
-        };
+        }
     }
 
-    private static void writePayload(ByteArrayOutputStream out, Tag tag) {
-        switch (tag.type()) {
-            case 0 -> {
-            }
-            case 1 -> out.write(((Number) tag.value()).byteValue());
-            case 2 -> writeShort(out, ((Number) tag.value()).shortValue());
-            case 3 -> writeInt(out, ((Number) tag.value()).intValue());
-            case 4 -> writeLong(out, ((Number) tag.value()).longValue());
-            case 5 -> writeInt(out, Float.floatToIntBits(((Number) tag.value()).floatValue()));
-            case 6 -> writeLong(out, Double.doubleToLongBits(((Number) tag.value()).doubleValue()));
-            case 7 -> {
-                byte[] bytes = (byte[]) tag.value();
-                writeInt(out, bytes.length);
-                out.writeBytes(bytes);
-            }
-            case 8 -> writeString(out, (String) tag.value());
-            case 9 -> {
-                ListTag listTag = (ListTag) tag.value();
-                out.write(listTag.elementType() & 0xFF);
-                writeInt(out, listTag.values().size());
-                for (Object value : listTag.values()) {
-                    writePayload(out, new Tag(listTag.elementType(), value));
-                }
-            }
-            case 10 -> {
-                @SuppressWarnings("unchecked")
-                Map<String, Tag> values = (Map<String, Tag>) tag.value();
-                for (Map.Entry<String, Tag> entry : values.entrySet()) {
-                    Tag child = entry.getValue();
-                    out.write(child.type() & 0xFF);
-                    writeString(out, entry.getKey());
-                    writePayload(out, child);
-                }
-                out.write(0);
+    static String readString(ByteBuffer in) {
+        int length = in.getShort() & 0xFFFF;
+        if (!in.hasArray()) {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    static int[] readIntArray(ByteBuffer in) throws IOException {
+        int length = checkedLength(in, 4);
+        int[] values = new int[length];
+        in.asIntBuffer().get(values);
+        in.position(in.position() + length * 4);
+        return values;
+    }
+
+    static byte[] readByteArray(ByteBuffer in) throws IOException {
+        byte[] values = new byte[checkedLength(in, 1)];
+        in.get(values);
+        return values;
+    }
+
+    static long[] readLongArray(ByteBuffer in) throws IOException {
+        int length = checkedLength(in, 8);
+        long[] values = new long[length];
+        in.asLongBuffer().get(values);
+        in.position(in.position() + length * 8);
+        return values;
+    }
+
+    static void skip(ByteBuffer in, int type) throws IOException {
+        switch (type) {
+            case TAG_END -> {
             }
-            case 11 -> {
-                int[] values = (int[]) tag.value();
-                writeInt(out, values.length);
-                for (int value : values) {
-                    writeInt(out, value);
+            case TAG_BYTE -> in.position(in.position() + 1);
+            case TAG_SHORT -> in.position(in.position() + 2);
+            case TAG_INT, TAG_FLOAT -> in.position(in.position() + 4);
+            case TAG_LONG, TAG_DOUBLE -> in.position(in.position() + 8);
+            case TAG_BYTE_ARRAY -> skipArray(in, 1);
+            case TAG_STRING -> skipString(in);
+            case TAG_LIST -> {
+                int elementType = in.get() & 0xFF;
+                int length = in.getInt();
+                for (int i = 0; i < length; i++) {
+                    skip(in, elementType);
                 }
             }
-            case 12 -> {
-                long[] values = (long[]) tag.value();
-                writeInt(out, values.length);
-                for (long value : values) {
-                    writeLong(out, value);
+            case TAG_COMPOUND -> {
+                int child;
+                while ((child = in.get() & 0xFF) != TAG_END) {
+                    skipString(in);
+                    skip(in, child);
                 }
             }
-            default -> throw new IllegalArgumentException("Unsupported NBT type: " + tag.type());
-        }
-    }
-
-    private static String readString(DataInputStream in) throws IOException {
-        int length;
-        try {
-            length = in.readUnsignedShort();
-        } catch (EOFException e) {
-            throw new IOException("Unexpected EOF while reading NBT string", e);
+            case TAG_INT_ARRAY -> skipArray(in, 4);
+            case TAG_LONG_ARRAY -> skipArray(in, 8);
+            default -> throw new IOException("Unsupported NBT type: " + type);
         }
-        byte[] bytes = new byte[length];
-        in.readFully(bytes);
-        return new String(bytes, StandardCharsets.UTF_8);
-    }
-
-    private static void writeString(ByteArrayOutputStream out, String value) {
-        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
-        writeShort(out, bytes.length);
-        out.writeBytes(bytes);
     }
 
-    private static void writeShort(ByteArrayOutputStream out, int value) {
-        out.write((value >>> 8) & 0xFF);
-        out.write(value & 0xFF);
+    private static void skipString(ByteBuffer in) {
+        int length = in.getShort() & 0xFFFF;
+        in.position(in.position() + length);
     }
 
-    private static void writeInt(ByteArrayOutputStream out, int value) {
-        out.write((value >>> 24) & 0xFF);
-        out.write((value >>> 16) & 0xFF);
-        out.write((value >>> 8) & 0xFF);
-        out.write(value & 0xFF);
+    private static void skipArray(ByteBuffer in, int elementSize) throws IOException {
+        int length = checkedLength(in, elementSize);
+        in.position(in.position() + length * elementSize);
     }
 
-    private static void writeLong(ByteArrayOutputStream out, long value) {
-        writeInt(out, (int) (value >>> 32));
-        writeInt(out, (int) value);
+    private static int checkedLength(ByteBuffer in, int elementSize) throws IOException {
+        int length = in.getInt();
+        if (length < 0 || (long) length * elementSize > in.remaining()) {
+            throw new IOException("Invalid NBT array length: " + length);
+        }
+        return length;
     }
 
-    record Tag(byte type, Object value) {
+    @FunctionalInterface
+    interface CompoundVisitor {
+        void visit(String name, int type, ByteBuffer payload) throws IOException;
     }
 
-    record ListTag(byte elementType, List<Object> values) {
+    @FunctionalInterface
+    interface ListVisitor {
+        void visit(int index, int elementType, ByteBuffer payload) throws IOException;
     }
-}
\ No newline at end of file
+}
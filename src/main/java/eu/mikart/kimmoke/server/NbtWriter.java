@@ -0,0 +1,62 @@
+package eu.mikart.kimmoke.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+final class NbtWriter {
+    private ByteBuffer buffer;
+
+    NbtWriter(int initialCapacity) {
+        this.buffer = ByteBuffer.allocate(initialCapacity);
+    }
+
+    void writeTagHeader(int type, String name) {
+        writeByte(type);
+        writeString(name);
+    }
+
+    void writeEnd() {
+        writeByte(NbtIo.TAG_END);
+    }
+
+    void writeByte(int value) {
+        ensure(1);
+        buffer.put((byte) value);
+    }
+
+    private void writeString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("NBT string too long: " + bytes.length);
+        }
+        ensure(2 + bytes.length);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    void copyPayload(ByteBuffer source, int type) throws IOException {
+        int start = source.position();
+        NbtIo.skip(source, type);
+        int length = source.position() - start;
+        ensure(length);
+        buffer.put(source.slice(start, length));
+    }
+
+    ByteBuffer take() {
+        ByteBuffer out = ByteBuffer.allocate(buffer.position());
+        out.put(0, buffer, 0, buffer.position());
+        buffer.clear();
+        return out;
+    }
+
+    private void ensure(int bytes) {
+        if (buffer.remaining() >= bytes) {
+            return;
+        }
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+    }
+}
@@ -1,44 +1,67 @@
 package eu.mikart.kimmoke.server;
 
+import eu.mikart.kimmoke.Settings;
+
+import javax.crypto.Cipher;
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
-import java.io.ByteArrayOutputStream;
 import java.net.InetSocketAddress;
+import java.io.IOException;
+import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
-import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.BitSet;
 import java.util.Deque;
 import java.util.List;
-import java.util.Random;
-import java.util.UUID;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
 
 public final class NioLimboServer {
     private static final int PROTOCOL_1_21_11 = 774;
+    private static final String VERSION_1_21_11 = "1.21.11";
+    private static final String FORWARDING_MAC_ALGORITHM = "HmacSHA256";
+    private static final int LEGACY_PING = 0xFE;
+    private static final int LEGACY_PING_PAYLOAD = 0x01;
+    private static final int LEGACY_PLUGIN_MESSAGE = 0xFA;
 
-    private static final int STATUS_C_SERVER_INFO = 0x00;
     private static final int STATUS_C_PING = 0x01;
 
+    private static final int LOGIN_C_DISCONNECT = 0x00;
+    private static final int LOGIN_C_ENCRYPTION_REQUEST = 0x01;
     private static final int LOGIN_C_SUCCESS = 0x02;
+    private static final int LOGIN_C_COMPRESSION = 0x03;
     private static final int LOGIN_C_PLUGIN_REQUEST = 0x04;
 
     private static final int CONFIG_C_FINISH_CONFIGURATION = 0x03;
-    private static final int CONFIG_C_REGISTRY_DATA = 0x07;
     private static final int CONFIG_C_FEATURE_FLAGS = 0x0C;
-    private static final int CONFIG_C_TAGS = 0x0D;
     private static final int CONFIG_C_SELECT_KNOWN_PACKS = 0x0E;
 
+    private static final int CONFIG_S_FINISH_CONFIGURATION = 0x03;
+    private static final int CONFIG_S_SELECT_KNOWN_PACKS = 0x07;
+
     private static final int PLAY_C_CHUNK_BATCH_FINISHED = 0x0B;
     private static final int PLAY_C_CHUNK_BATCH_START = 0x0C;
     private static final int PLAY_C_CUSTOM_PAYLOAD = 0x18;
     private static final int PLAY_C_GAME_EVENT = 0x26;
     private static final int PLAY_C_KEEP_ALIVE = 0x2b;
-    private static final int PLAY_C_MAP_CHUNK = 0x2C;
     private static final int PLAY_C_LOGIN = 0x30;
     private static final int PLAY_C_PLAYER_ABILITIES = 0x3E;
     private static final int PLAY_C_POSITION = 0x46;
@@ -49,89 +72,396 @@ public final class NioLimboServer {
     private static final int PLAY_C_SET_EXPERIENCE = 0x65;
     private static final int PLAY_C_SET_HEALTH = 0x66;
     private static final int PLAY_C_SET_TIME = 0x6F;
+    private static final int PLAY_S_KEEP_ALIVE = 0x1B;
+    private static final int MAX_INFLATED_PLAY_PACKET = 64;
     private static final long KEEP_ALIVE_INTERVAL_MS = 10_000L;
+    private static final long QUEUE_STATUS_INTERVAL_MS = 2_000L;
+    private static final long ACCEPT_BACKOFF_MS = 10L;
+    private static final int MAX_SHARED_QUEUED_PER_CONNECTION = 1024;
+    private static final int CHUNKS_PER_FLUSH = 32;
+    private static final String CORE_PACK_NAMESPACE = "minecraft";
+    private static final String CORE_PACK_ID = "core";
+    private static final String CORE_PACK_VERSION = VERSION_1_21_11;
+    private static final String BIOME_REGISTRY = "minecraft:worldgen/biome";
+    private static final String VOID_BIOME = "minecraft:the_void";
+    private static final String UNVERIFIED_USERNAME = "{\"translate\":\"multiplayer.disconnect.unverified_username\"}";
+    private static final String AUTH_SERVERS_DOWN = "{\"translate\":\"multiplayer.disconnect.authservers_down\"}";
+    private static final int CIPHER_BUFFER_SIZE = 1 << 16;
 
     private final String host;
     private final int port;
-    private final List<RegistryDataProvider.RegistryData> registryData;
-    private final List<TagsDataProvider.TagRegistry> tagsData;
+    private final RegistryFrames registryFrames;
     private final boolean velocityModernForwarding;
     private final byte[] velocitySecret;
+    private final LoginEncryption loginEncryption;
+    private final ExecutorService sessionExecutor;
+    private volatile SessionVerifier sessionVerifier;
     private final boolean hardcore;
     private final Position spawnPosition;
-
-    public NioLimboServer(String host, int port, boolean velocityModernForwarding, String velocitySecret, boolean hardcore, Position spawnPosition) {
+    private final int viewDistance;
+    private final AnvilWorld world;
+    private final int workerThreads;
+    private final int acceptorThreads;
+    private final boolean reusePort;
+    private final String sharedCountersFile;
+    private final int statsInterval;
+    private final long bufferPoolBytesPerLoop;
+    private final long maxQueuedBytesPerConnection;
+    private final long maxQueuedBytesTotal;
+    private final int compressionThreshold;
+    private final long handshakeTimeoutMillis;
+    private final long loginTimeoutMillis;
+    private final int maxMissedKeepAlives;
+    private final AdmissionControl admission;
+    private final TransferQueue transferQueue;
+    private final PacketCompression precompression;
+    private volatile EventLoop[] loops;
+    private volatile Broadcast bossBar;
+    private final int maxPlayers;
+    private final String favicon;
+    private volatile String motd;
+    private volatile StatusResponse statusResponse;
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final ServerStats stats = new ServerStats();
+    private final ByteBuffer configurationStart;
+    private final ByteBuffer configurationFull;
+    private final ByteBuffer configurationKnownPacks;
+    private final AtomicInteger nextEntityId = new AtomicInteger();
+    private ByteBuffer playLogin;
+    private ByteBuffer playPackets;
+    private long[] chunkOrder;
+    private ChunkFrames[] voidChunks;
+    private ChunkFrames chunkBatchFinished;
+    private int playEntityIdOffset;
+    private SharedCounters sharedCounters;
+
+    public NioLimboServer(String host, Settings settings) {
         this.host = host;
-        this.port = port;
-        this.registryData = RegistryDataProvider.load();
-        this.tagsData = TagsDataProvider.load(this.registryData);
-        this.velocityModernForwarding = velocityModernForwarding;
-        this.velocitySecret = velocitySecret == null ? new byte[0] : velocitySecret.getBytes(StandardCharsets.UTF_8);
-        this.hardcore = hardcore;
-        this.spawnPosition = spawnPosition == null ? Position.ZERO : spawnPosition;
-    }
-
-    private void accept(Selector selector, ServerSocketChannel server) throws Exception {
-        SocketChannel channel = server.accept();
-        if (channel == null) {
-            return;
+        this.port = settings.getPort();
+        this.registryFrames = RegistryFrames.load();
+        this.velocityModernForwarding = settings.isVelocityModernForwarding();
+        this.velocitySecret = settings.getVelocitySecret() == null ? new byte[0] : settings.getVelocitySecret().getBytes(StandardCharsets.UTF_8);
+        if (settings.isOnlineMode() && velocityModernForwarding) {
+            throw new IllegalStateException("onlineMode cannot be combined with velocityModernForwarding, Velocity already authenticates players");
         }
-        channel.configureBlocking(false);
+        this.loginEncryption = settings.isOnlineMode() ? LoginEncryption.generate() : null;
+        this.sessionVerifier = settings.isOnlineMode() ? new MojangSessionVerifier(settings.getSessionServer()) : null;
+        this.sessionExecutor = settings.isOnlineMode() ? createSessionExecutor(Math.max(1, settings.getSessionThreads())) : null;
+        this.hardcore = settings.isHardcore();
+        this.spawnPosition = settings.getSpawnPosition() == null ? Position.ZERO : settings.getSpawnPosition();
+        this.viewDistance = Math.max(2, Math.min(32, settings.getViewDistance()));
+        this.world = createWorld(settings, registryFrames);
+        this.workerThreads = settings.getWorkerThreads() > 0 ? settings.getWorkerThreads() : Runtime.getRuntime().availableProcessors();
+        this.reusePort = settings.isReusePort();
+        this.acceptorThreads = reusePort ? Math.max(1, settings.getAcceptorThreads()) : 1;
+        this.sharedCountersFile = settings.getSharedCountersFile();
+        this.statsInterval = settings.getStatsInterval();
+        this.bufferPoolBytesPerLoop = (long) settings.getBufferPoolMegabytes() << 20;
+        this.maxQueuedBytesPerConnection = (long) settings.getMaxQueuedKilobytesPerConnection() << 10;
+        this.maxQueuedBytesTotal = (long) settings.getMaxQueuedMegabytesTotal() << 20;
+        this.compressionThreshold = settings.getCompressionThreshold();
+        this.handshakeTimeoutMillis = settings.getHandshakeTimeout() * 1000L;
+        this.loginTimeoutMillis = settings.getLoginTimeout() * 1000L;
+        this.maxMissedKeepAlives = Math.max(1, settings.getMaxMissedKeepAlives());
+        this.admission = createAdmissionControl(settings);
+        this.maxPlayers = settings.getMaxPlayers();
+        this.favicon = loadFavicon(settings.getFavicon());
+        this.motd = settings.getMotd() == null ? "" : settings.getMotd();
+
+        this.precompression = compressionThreshold >= 0 ? new PacketCompression(compressionThreshold, Deflater.BEST_COMPRESSION) : null;
+        this.configurationStart = precompress(precompression, encodeConfigurationStart());
+        this.configurationFull = precompress(precompression, encodeConfigurationRegistries(false));
+        this.configurationKnownPacks = precompress(precompression, encodeConfigurationRegistries(true));
+        encodePlayPackets();
+        this.playPackets = precompress(precompression, playPackets);
+        this.transferQueue = settings.getTransferHost() == null || settings.getTransferHost().isBlank() ? null
+            : new TransferQueue(settings.getTransferHost(), settings.getTransferPort(), settings.getTransfersPerSecond(), precompression);
+    }
 
-        Connection connection = new Connection(channel);
-        channel.register(selector, SelectionKey.OP_READ, connection);
+    private static String loadFavicon(String path) {
+        if (path == null || path.isEmpty()) {
+            return null;
+        }
+        try {
+            return "data:image/png;base64," + Base64.getEncoder().encodeToString(Files.readAllBytes(Path.of(path)));
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read favicon " + path, e);
+        }
+    }
+
+    private static AnvilWorld createWorld(Settings settings, RegistryFrames registryFrames) {
+        String directory = settings.getWorldDirectory();
+        if (directory == null || directory.isBlank()) {
+            return null;
+        }
+        String reports = settings.getWorldReportsDirectory();
+        if (reports == null || reports.isBlank()) {
+            throw new IllegalStateException("worldReportsDirectory must be set when worldDirectory is set");
+        }
+        Map<String, Integer> biomes = registryFrames.entryIds(BIOME_REGISTRY);
+        return new AnvilWorld(Path.of(directory), BlockRegistry.load(Path.of(reports)), biomes,
+            biomes.getOrDefault(VOID_BIOME, 0), Math.max(1, settings.getWorldCacheChunks()), settings.getCompressionThreshold());
+    }
+
+    private static ExecutorService createSessionExecutor(int threads) {
+        AtomicInteger next = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "kimmoke-session-" + next.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static AdmissionControl createAdmissionControl(Settings settings) {
+        if (settings.isVelocityModernForwarding()) {
+            return null;
+        }
+        int addressPerSecond = Math.max(0, settings.getConnectionsPerSecondPerAddress());
+        int addressMax = Math.max(0, settings.getMaxConnectionsPerAddress());
+        int prefixPerSecond = Math.max(0, settings.getConnectionsPerSecondPerPrefix());
+        int prefixMax = Math.max(0, settings.getMaxConnectionsPerPrefix());
+        if (addressPerSecond == 0 && addressMax == 0 && prefixPerSecond == 0 && prefixMax == 0) {
+            return null;
+        }
+        return new AdmissionControl(addressPerSecond, addressMax, prefixPerSecond, prefixMax);
+    }
+
+    private static ByteBuffer precompress(PacketCompression compression, ByteBuffer frames) {
+        if (compression == null) {
+            return frames;
+        }
+        return compression.compressFrames(frames, true).asReadOnlyBuffer();
     }
 
-    private void read(SelectionKey key) throws Exception {
+    ServerStats stats() {
+        return stats;
+    }
+
+    public void setMotd(String motd) {
+        this.motd = motd == null ? "" : motd;
+    }
+
+    public void setSessionVerifier(SessionVerifier sessionVerifier) {
+        if (loginEncryption == null) {
+            throw new IllegalStateException("Session verification is only used in online mode");
+        }
+        this.sessionVerifier = Objects.requireNonNull(sessionVerifier);
+    }
+
+    private StatusResponse statusResponse() {
+        long online = onlinePlayers();
+        String motd = this.motd;
+        StatusResponse cached = statusResponse;
+        if (cached == null || cached.online() != online || !cached.motd().equals(motd)) {
+            cached = StatusResponse.encode(VERSION_1_21_11, PROTOCOL_1_21_11, maxPlayers, online, motd, favicon);
+            statusResponse = cached;
+        }
+        return cached;
+    }
+
+    long onlinePlayers() {
+        return sharedCounters != null ? sharedCounters.totalOnline() : stats.online.sum();
+    }
+
+    private void playerJoined() {
+        stats.logins.increment();
+        stats.online.increment();
+        if (sharedCounters != null) {
+            sharedCounters.addOnline(1);
+        }
+    }
+
+    private void playerLeft() {
+        stats.online.decrement();
+        if (sharedCounters != null) {
+            sharedCounters.addOnline(-1);
+        }
+    }
+
+    void read(SelectionKey key) throws Exception {
         Connection connection = (Connection) key.attachment();
-        int bytes = connection.channel.read(connection.readBuffer);
+        ByteBuffer buffer = connection.readBuffer != null ? connection.readBuffer : connection.loop.readScratch();
+        int start = buffer.position();
+        int bytes = connection.channel.read(buffer);
+        stats.readSyscalls.increment();
         if (bytes <= 0) {
             closeKey(key);
             return;
         }
+        PacketCipher cipher = connection.cipher;
+        if (cipher != null) {
+            cipher.decrypt(buffer, start, start + bytes);
+        }
 
-        connection.readBuffer.flip();
+        buffer.flip();
+        if (connection.state == ConnectionState.HANDSHAKE && connection.frameLength < 0 && isLegacyPing(buffer)) {
+            stats.statusRequests.increment();
+            boolean beta = buffer.remaining() == 1;
+            buffer.clear();
+            connection.releaseReadBuffer();
+            queue(connection, statusResponse().legacyFrame(beta).duplicate());
+            connection.closeAfterFlush = true;
+            flush(key, connection);
+            return;
+        }
+        ByteBuffer frames = buffer.asReadOnlyBuffer();
+        PacketCompression compression = connection.compressed ? connection.loop.compression() : null;
         while (true) {
-            int frameStart = connection.readBuffer.position();
-            int frameLength = MinecraftCodec.tryReadVarInt(connection.readBuffer);
-            if (frameLength == Integer.MIN_VALUE) {
-                connection.readBuffer.position(frameStart);
-                break;
+            if (connection.frameLength < 0) {
+                int frameLength = MinecraftCodec.tryReadVarInt(frames);
+                if (frameLength == MinecraftCodec.VARINT_INCOMPLETE) {
+                    break;
+                }
+                if (frameLength < 0 || frameLength > BufferPool.maxCapacity()) {
+                    closeKey(key);
+                    return;
+                }
+                connection.frameLength = frameLength;
             }
-            if (frameLength < 0 || frameLength > connection.readBuffer.remaining()) {
-                connection.readBuffer.position(frameStart);
+            if (frames.remaining() < connection.frameLength) {
                 break;
             }
 
-            byte[] frame = new byte[frameLength];
-            connection.readBuffer.get(frame);
-            handlePacket(key, connection, ByteBuffer.wrap(frame));
+            int frameStart = frames.position();
+            ByteBuffer frame = frames.slice(frameStart, connection.frameLength);
+            frames.position(frameStart + connection.frameLength);
+            connection.frameLength = -1;
+            if (compression != null && connection.state == ConnectionState.PLAY && frame.get(0) != 0
+                && MinecraftCodec.readVarInt(frame.duplicate()) > MAX_INFLATED_PLAY_PACKET) {
+                continue;
+            }
+            handlePacket(key, connection, compression != null ? compression.decompress(frame) : frame);
+            if (connection.state == ConnectionState.CLOSED) {
+                return;
+            }
+            if (connection.cipher != cipher) {
+                cipher = connection.cipher;
+                cipher.decrypt(buffer, frames.position(), frames.limit());
+            }
         }
-        connection.readBuffer.compact();
+        buffer.position(frames.position());
+        retainPartialFrame(connection, buffer, Math.max(connection.frameLength, 0));
+        flush(key, connection);
+    }
 
-        if (!connection.writeQueue.isEmpty()) {
-            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    private static boolean isLegacyPing(ByteBuffer buffer) {
+        int start = buffer.position();
+        int available = buffer.remaining();
+        return (buffer.get(start) & 0xFF) == LEGACY_PING
+            && (available < 2 || (buffer.get(start + 1) & 0xFF) == LEGACY_PING_PAYLOAD)
+            && (available < 3 || (buffer.get(start + 2) & 0xFF) == LEGACY_PLUGIN_MESSAGE);
+    }
+
+    private static void retainPartialFrame(Connection connection, ByteBuffer buffer, int pendingFrameSize) {
+        if (!buffer.hasRemaining()) {
+            connection.releaseReadBuffer();
+            return;
+        }
+
+        int needed = Math.max(pendingFrameSize, buffer.remaining());
+        if (buffer == connection.readBuffer && needed <= buffer.capacity()) {
+            buffer.compact();
+            return;
         }
+
+        BufferPool pool = connection.loop.bufferPool();
+        ByteBuffer replacement = pool.acquire(Math.max(needed, BufferPool.minCapacity()));
+        replacement.put(buffer);
+        connection.releaseReadBuffer();
+        connection.readBuffer = replacement;
     }
 
-    private void write(SelectionKey key) throws Exception {
-        Connection connection = (Connection) key.attachment();
-        while (!connection.writeQueue.isEmpty()) {
-            ByteBuffer current = connection.writeQueue.peek();
-            connection.channel.write(current);
-            if (current.hasRemaining()) {
+    void write(SelectionKey key) throws Exception {
+        flush(key, (Connection) key.attachment());
+    }
+
+    private void flush(SelectionKey key, Connection connection) throws IOException {
+        if (connection.state == ConnectionState.CLOSED) {
+            return;
+        }
+        while (true) {
+            if (!(connection.cipher != null ? writeEncrypted(connection) : writeQueued(connection))) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            if (connection.nextChunk < 0 || !queueChunks(connection)) {
                 break;
             }
-            connection.writeQueue.poll();
         }
 
-        if (connection.writeQueue.isEmpty()) {
-            if (connection.closeAfterFlush) {
-                closeKey(key);
-            } else {
-                key.interestOps(SelectionKey.OP_READ);
+        if (connection.closeAfterFlush) {
+            closeKey(key);
+            return;
+        }
+        if ((key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+            key.interestOps(SelectionKey.OP_READ);
+        }
+        if (connection.state == ConnectionState.PLAY && connection.frameLength < 0
+            && (connection.readBuffer == null || connection.readBuffer.position() == 0)) {
+            connection.hibernate();
+        }
+    }
+
+    private boolean writeQueued(Connection connection) throws IOException {
+        Deque<ByteBuffer> queue = connection.writeQueue;
+        ByteBuffer[] batch = connection.loop.writeBatch();
+        while (queue != null && !queue.isEmpty()) {
+            int count = 0;
+            for (ByteBuffer buffer : queue) {
+                batch[count++] = buffer;
+                if (count == batch.length) {
+                    break;
+                }
+            }
+
+            connection.channel.write(batch, 0, count);
+            stats.writeSyscalls.increment();
+            Arrays.fill(batch, 0, count, null);
+
+            int written = 0;
+            while (!queue.isEmpty() && !queue.peek().hasRemaining()) {
+                dequeued(connection, queue.poll());
+                written++;
+            }
+            if (written < count) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean writeEncrypted(Connection connection) throws IOException {
+        Deque<ByteBuffer> queue = connection.writeQueue;
+        ByteBuffer out = connection.cipherBuffer;
+        while (true) {
+            if (out != null && out.hasRemaining()) {
+                connection.channel.write(out);
+                stats.writeSyscalls.increment();
+                if (out.hasRemaining()) {
+                    return false;
+                }
+            }
+            if (queue == null || queue.isEmpty()) {
+                break;
+            }
+
+            if (out == null) {
+                out = connection.loop.bufferPool().acquire(CIPHER_BUFFER_SIZE);
+                connection.cipherBuffer = out;
+            }
+            out.clear();
+            while (out.hasRemaining() && !queue.isEmpty()) {
+                ByteBuffer plain = queue.peek();
+                int length = Math.min(plain.remaining(), out.remaining());
+                connection.cipher.encrypt(plain, length, out);
+                if (!plain.hasRemaining()) {
+                    dequeued(connection, queue.poll());
+                }
             }
+            out.flip();
         }
+        connection.releaseCipherBuffer();
+        return true;
     }
 
     private void handlePacket(SelectionKey key, Connection connection, ByteBuffer packet) {
@@ -141,59 +471,65 @@ public final class NioLimboServer {
             case HANDSHAKE -> handleHandshake(connection, packetId, packet);
             case STATUS -> handleStatus(key, connection, packetId, packet);
             case LOGIN -> handleLogin(connection, packetId, packet);
-            case CONFIGURATION -> handleConfiguration(connection, packetId);
-            case PLAY -> {
-            }
+            case CONFIGURATION -> handleConfiguration(connection, packetId, packet);
+            case PLAY -> handlePlay(connection, packetId, packet);
         }
     }
 
     private void handleHandshake(Connection connection, int packetId, ByteBuffer packet) {
         if (packetId != 0x00) {
-            connection.state = ConnectionState.CLOSED;
+            closeConnection(connection);
             return;
         }
 
+        MinecraftCodec.readVarInt(packet);
         MinecraftCodec.readString(packet);
         packet.getShort();
         int nextState = MinecraftCodec.readVarInt(packet);
         connection.state = nextState == 1 ? ConnectionState.STATUS : ConnectionState.LOGIN;
+        if (connection.state == ConnectionState.LOGIN) {
+            connection.loop.timers().schedule(connection, loginTimeoutMillis);
+        }
     }
 
     private void handleStatus(SelectionKey key, Connection connection, int packetId, ByteBuffer packet) {
         if (packetId == 0x00) {
-            String json = "{\"version\":{\"name\":\"1.21.11\",\"protocol\":" + PROTOCOL_1_21_11 + "},"
-                + "\"players\":{\"max\":1,\"online\":0},"
-                + "\"description\":{\"text\":\"Kimmoke\"},"
-                + "\"enforcesSecureChat\":false}";
-
-            ByteArrayOutputStream payload = new ByteArrayOutputStream();
-            MinecraftCodec.writeString(payload, json);
-            queue(connection, STATUS_C_SERVER_INFO, payload);
+            stats.statusRequests.increment();
+            queue(connection, statusResponse().frame().duplicate());
             return;
         }
 
         if (packetId == 0x01) {
             long ping = packet.getLong();
-            ByteArrayOutputStream payload = new ByteArrayOutputStream();
-            MinecraftCodec.writeLong(payload, ping);
-            queue(connection, STATUS_C_PING, payload);
-            closeAfterFlush(key, connection);
+            PacketWriter out = connection.loop.packetWriter();
+            out.begin(STATUS_C_PING);
+            out.writeLong(ping);
+            out.end();
+            queue(connection, out);
+            connection.closeAfterFlush = true;
         }
     }
 
     private void handleLogin(Connection connection, int packetId, ByteBuffer packet) {
         if (packetId == 0x00) {
             connection.username = MinecraftCodec.readString(packet);
-            connection.uuid = MinecraftCodec.readUuid(packet);
+            connection.setUuid(packet.getLong(), packet.getLong());
+
+            if (loginEncryption != null) {
+                sendEncryptionRequest(connection);
+                return;
+            }
 
             if (velocityModernForwarding) {
                 connection.velocityQueryId = 1;
 
-                ByteArrayOutputStream payload = new ByteArrayOutputStream();
-                MinecraftCodec.writeVarInt(payload, connection.velocityQueryId);
-                MinecraftCodec.writeString(payload, "velocity:player_info");
-                MinecraftCodec.writeVarInt(payload, 0);
-                queue(connection, LOGIN_C_PLUGIN_REQUEST, payload);
+                PacketWriter out = connection.loop.packetWriter();
+                out.begin(LOGIN_C_PLUGIN_REQUEST);
+                out.writeVarInt(connection.velocityQueryId);
+                out.writeString("velocity:player_info");
+                out.writeVarInt(0);
+                out.end();
+                queue(connection, out);
                 return;
             }
 
@@ -201,6 +537,13 @@ public final class NioLimboServer {
             return;
         }
 
+        if (packetId == 0x01 && connection.verifyToken != null) {
+            if (!enableEncryption(connection, packet)) {
+                closeConnection(connection);
+            }
+            return;
+        }
+
         if (packetId == 0x02 && velocityModernForwarding) {
             int messageId = MinecraftCodec.readVarInt(packet);
             boolean successful = packet.get() != 0;
@@ -209,9 +552,7 @@ public final class NioLimboServer {
                 return;
             }
 
-            byte[] payload = new byte[packet.remaining()];
-            packet.get(payload);
-            if (!applyVelocityForwarding(connection, payload)) {
+            if (!applyVelocityForwarding(connection, packet)) {
                 closeConnection(connection);
                 return;
             }
@@ -220,353 +561,838 @@ public final class NioLimboServer {
             return;
         }
 
-        if (packetId == 0x03) {
+        if (packetId == 0x03 && connection.loggedIn) {
             connection.state = ConnectionState.CONFIGURATION;
             sendConfigurationPackets(connection);
         }
     }
 
-    private void sendLoginSuccess(Connection connection) {
-        ByteArrayOutputStream payload = new ByteArrayOutputStream();
-        MinecraftCodec.writeUuid(payload, connection.uuid);
-        MinecraftCodec.writeString(payload, connection.username);
-        MinecraftCodec.writeVarInt(payload, 0);
-        queue(connection, LOGIN_C_SUCCESS, payload);
+    void sendLoginSuccess(Connection connection) {
+        PacketWriter out = connection.loop.packetWriter();
+        if (compressionThreshold >= 0) {
+            out.begin(LOGIN_C_COMPRESSION);
+            out.writeVarInt(compressionThreshold);
+            out.end();
+            queue(connection, out);
+            connection.compressed = true;
+        }
+
+        connection.ensureUuid();
+        out.begin(LOGIN_C_SUCCESS);
+        out.writeUuid(connection.uuidMost, connection.uuidLeast);
+        out.writeString(connection.username);
+        out.writeVarInt(connection.properties.size());
+        for (GameProfile.Property property : connection.properties) {
+            out.writeString(property.name());
+            out.writeString(property.value());
+            out.writeBoolean(property.signature() != null);
+            if (property.signature() != null) {
+                out.writeString(property.signature());
+            }
+        }
+        out.end();
+        queue(connection, out);
+        connection.loggedIn = true;
+    }
+
+    private void sendEncryptionRequest(Connection connection) {
+        byte[] verifyToken = new byte[LoginEncryption.VERIFY_TOKEN_LENGTH];
+        ThreadLocalRandom.current().nextBytes(verifyToken);
+        connection.verifyToken = verifyToken;
+
+        byte[] publicKey = loginEncryption.publicKey();
+        PacketWriter out = connection.loop.packetWriter();
+        out.begin(LOGIN_C_ENCRYPTION_REQUEST);
+        out.writeString("");
+        out.writeVarInt(publicKey.length);
+        out.writeBytes(publicKey);
+        out.writeVarInt(verifyToken.length);
+        out.writeBytes(verifyToken);
+        out.writeBoolean(true);
+        out.end();
+        queue(connection, out);
     }
 
-    private boolean applyVelocityForwarding(Connection connection, byte[] payload) {
-        if (payload.length < 32) {
+    private boolean enableEncryption(Connection connection, ByteBuffer packet) {
+        byte[] encryptedSecret = MinecraftCodec.readByteArray(packet, LoginEncryption.ENCRYPTED_LENGTH);
+        byte[] encryptedToken = MinecraftCodec.readByteArray(packet, LoginEncryption.ENCRYPTED_LENGTH);
+        Cipher decryption = connection.loop.loginDecryption();
+        byte[] sharedSecret;
+        try {
+            if (!MessageDigest.isEqual(decryption.doFinal(encryptedToken), connection.verifyToken)) {
+                return false;
+            }
+            sharedSecret = decryption.doFinal(encryptedSecret);
+            if (sharedSecret.length != LoginEncryption.SHARED_SECRET_LENGTH) {
+                return false;
+            }
+            connection.cipher = new PacketCipher(sharedSecret);
+        } catch (GeneralSecurityException e) {
             return false;
         }
+        connection.verifyToken = null;
+        verifySession(connection, loginEncryption.serverHash(sharedSecret));
+        return true;
+    }
 
-        byte[] signature = new byte[32];
-        System.arraycopy(payload, 0, signature, 0, signature.length);
-        byte[] data = new byte[payload.length - signature.length];
-        System.arraycopy(payload, signature.length, data, 0, data.length);
+    private void verifySession(Connection connection, String serverHash) {
+        SessionVerifier verifier = sessionVerifier;
+        String username = connection.username;
+        connection.verifying = true;
+        sessionExecutor.execute(() -> {
+            try {
+                connection.verifiedProfile = verifier.hasJoined(username, serverHash);
+            } catch (Exception e) {
+                connection.verificationFailed = true;
+            }
+            connection.loop.sessionVerified(connection);
+        });
+    }
 
-        byte[] computed;
+    void sessionVerified(Connection connection) {
+        if (connection.state != ConnectionState.LOGIN || !connection.verifying) {
+            return;
+        }
+        connection.verifying = false;
+        GameProfile profile = connection.verifiedProfile;
+        connection.verifiedProfile = null;
+        if (profile == null) {
+            stats.unverifiedLogins.increment();
+            disconnectLogin(connection, connection.verificationFailed ? AUTH_SERVERS_DOWN : UNVERIFIED_USERNAME);
+        } else {
+            connection.setUuid(profile.id().getMostSignificantBits(), profile.id().getLeastSignificantBits());
+            connection.username = profile.name();
+            connection.properties = profile.properties();
+            sendLoginSuccess(connection);
+        }
         try {
-            Mac mac = Mac.getInstance("HmacSHA256");
-            mac.init(new SecretKeySpec(velocitySecret, "HmacSHA256"));
-            computed = mac.doFinal(data);
+            flush(connection.key, connection);
         } catch (Exception e) {
+            closeKey(connection.key);
+        }
+    }
+
+    private void disconnectLogin(Connection connection, String reason) {
+        PacketWriter out = connection.loop.packetWriter();
+        out.begin(LOGIN_C_DISCONNECT);
+        out.writeString(reason);
+        out.end();
+        queue(connection, out);
+        connection.closeAfterFlush = true;
+    }
+
+    EventLoop createLoop(int index) throws IOException {
+        PacketCompression compression = compressionThreshold >= 0 ? new PacketCompression(compressionThreshold, Deflater.DEFAULT_COMPRESSION) : null;
+        Cipher loginDecryption = loginEncryption != null ? loginEncryption.createDecryptCipher() : null;
+        return new EventLoop(this, index, bufferPoolBytesPerLoop, compression, createForwardingMac(), loginDecryption);
+    }
+
+    private Mac createForwardingMac() {
+        if (!velocityModernForwarding || velocitySecret.length == 0) {
+            return null;
+        }
+        try {
+            Mac mac = Mac.getInstance(FORWARDING_MAC_ALGORITHM);
+            mac.init(new SecretKeySpec(velocitySecret, FORWARDING_MAC_ALGORITHM));
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to initialise " + FORWARDING_MAC_ALGORITHM, e);
+        }
+    }
+
+    boolean applyVelocityForwarding(Connection connection, ByteBuffer payload) {
+        Mac mac = connection.loop.forwardingMac();
+        byte[] digest = connection.loop.forwardingDigest();
+        if (payload.remaining() < digest.length) {
             return false;
         }
 
-        if (!MessageDigest.isEqual(signature, computed)) {
+        int signatureStart = payload.position();
+        payload.position(signatureStart + digest.length);
+        mac.update(payload.duplicate());
+        try {
+            mac.doFinal(digest, 0);
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
+
+        int difference = 0;
+        for (int i = 0; i < digest.length; i++) {
+            difference |= digest[i] ^ payload.get(signatureStart + i);
+        }
+        if (difference != 0) {
             return false;
         }
 
-        ByteBuffer buffer = ByteBuffer.wrap(data);
-        int version = MinecraftCodec.readVarInt(buffer);
+        int version = MinecraftCodec.readVarInt(payload);
         if (version < 1) {
             return false;
         }
 
-        MinecraftCodec.readString(buffer);
-        connection.uuid = MinecraftCodec.readUuid(buffer);
-        connection.username = MinecraftCodec.readString(buffer);
+        MinecraftCodec.skipString(payload);
+        connection.setUuid(payload.getLong(), payload.getLong());
+        connection.username = MinecraftCodec.readString(payload);
 
-        int propertyCount = MinecraftCodec.readVarInt(buffer);
+        int propertyCount = MinecraftCodec.readVarInt(payload);
         for (int i = 0; i < propertyCount; i++) {
-            MinecraftCodec.readString(buffer);
-            MinecraftCodec.readString(buffer);
-            boolean signed = buffer.get() != 0;
+            MinecraftCodec.skipString(payload);
+            MinecraftCodec.skipString(payload);
+            boolean signed = payload.get() != 0;
             if (signed) {
-                MinecraftCodec.readString(buffer);
+                MinecraftCodec.skipString(payload);
             }
         }
 
         return true;
     }
 
-    private void handleConfiguration(Connection connection, int packetId) {
-        if (packetId == 0x03) {
+    private void handleConfiguration(Connection connection, int packetId, ByteBuffer packet) {
+        if (packetId == CONFIG_S_SELECT_KNOWN_PACKS) {
+            if (connection.registriesSent) {
+                return;
+            }
+            connection.registriesSent = true;
+            ByteBuffer registries = clientKnowsCorePack(packet) ? configurationKnownPacks : configurationFull;
+            queue(connection, registries.duplicate());
+            return;
+        }
+
+        if (packetId == CONFIG_S_FINISH_CONFIGURATION && connection.registriesSent) {
             connection.state = ConnectionState.PLAY;
+            playerJoined();
             sendPlayPackets(connection);
+            if (connection.state != ConnectionState.PLAY) {
+                return;
+            }
+            Broadcast bossBar = this.bossBar;
+            if (bossBar != null) {
+                queue(connection, bossBar.frames(connection.compressed).duplicate());
+            }
+            if (transferQueue != null) {
+                transferQueue.enqueue(connection);
+                sendQueuePosition(connection);
+            }
+            connection.loop.timers().schedule(connection, connection.queueTicket >= 0L ? QUEUE_STATUS_INTERVAL_MS : KEEP_ALIVE_INTERVAL_MS);
+        }
+    }
+
+    private void handlePlay(Connection connection, int packetId, ByteBuffer packet) {
+        if (packetId != PLAY_S_KEEP_ALIVE) {
+            return;
+        }
+
+        long keepAliveId = packet.getLong();
+        if (keepAliveId != connection.keepAliveId) {
+            return;
+        }
+        long rtt = System.currentTimeMillis() - keepAliveId;
+        connection.keepAliveId = 0L;
+        connection.missedKeepAlives = 0;
+        connection.latencyMillis = (int) Math.min(Integer.MAX_VALUE, Math.max(0L, rtt));
+        stats.recordRtt(rtt);
+    }
+
+    private static boolean clientKnowsCorePack(ByteBuffer packet) {
+        int count = MinecraftCodec.readVarInt(packet);
+        for (int i = 0; i < count; i++) {
+            String namespace = MinecraftCodec.readString(packet);
+            String id = MinecraftCodec.readString(packet);
+            String version = MinecraftCodec.readString(packet);
+            if (CORE_PACK_NAMESPACE.equals(namespace) && CORE_PACK_ID.equals(id) && CORE_PACK_VERSION.equals(version)) {
+                return true;
+            }
         }
+        return false;
     }
 
     private void sendConfigurationPackets(Connection connection) {
-        ByteArrayOutputStream features = new ByteArrayOutputStream();
-        MinecraftCodec.writeVarInt(features, 0);
-        queue(connection, CONFIG_C_FEATURE_FLAGS, features);
+        queue(connection, configurationStart.duplicate());
+    }
 
-        ByteArrayOutputStream knownPacks = new ByteArrayOutputStream();
-        MinecraftCodec.writeVarInt(knownPacks, 0);
-        queue(connection, CONFIG_C_SELECT_KNOWN_PACKS, knownPacks);
+    private ByteBuffer encodeConfigurationStart() {
+        PacketWriter out = new PacketWriter(1 << 8, true);
 
-        sendRegistryData(connection);
+        out.begin(CONFIG_C_FEATURE_FLAGS);
+        out.writeVarInt(0);
+        out.end();
 
-        queue(connection, CONFIG_C_TAGS, tagsPacket());
+        out.begin(CONFIG_C_SELECT_KNOWN_PACKS);
+        out.writeVarInt(1);
+        out.writeString(CORE_PACK_NAMESPACE);
+        out.writeString(CORE_PACK_ID);
+        out.writeString(CORE_PACK_VERSION);
+        out.end();
 
-        queue(connection, CONFIG_C_FINISH_CONFIGURATION, new ByteArrayOutputStream());
+        return out.take().asReadOnlyBuffer();
     }
 
-    private void sendRegistryData(Connection connection) {
-        for (RegistryDataProvider.RegistryData registry : registryData) {
-            queue(connection, CONFIG_C_REGISTRY_DATA, registryPacket(registry.id(), registry.entries()));
-        }
-    }
+    private ByteBuffer encodeConfigurationRegistries(boolean corePackKnown) {
+        PacketWriter out = new PacketWriter(1 << 17, true);
 
-    private ByteArrayOutputStream tagsPacket() {
-        ByteArrayOutputStream payload = new ByteArrayOutputStream();
-        MinecraftCodec.writeVarInt(payload, tagsData.size());
-        for (TagsDataProvider.TagRegistry registry : tagsData) {
-            MinecraftCodec.writeString(payload, registry.registryId());
-            MinecraftCodec.writeVarInt(payload, registry.tags().size());
-            for (TagsDataProvider.TagEntry tag : registry.tags()) {
-                MinecraftCodec.writeString(payload, tag.tagId());
-                MinecraftCodec.writeVarInt(payload, tag.entryIds().size());
-                for (Integer id : tag.entryIds()) {
-                    MinecraftCodec.writeVarInt(payload, id);
-                }
-            }
-        }
-        return payload;
-    }
+        out.writeFrames(corePackKnown ? registryFrames.registriesKnownPacks() : registryFrames.registries());
+        out.writeFrames(registryFrames.tags());
 
-    private ByteArrayOutputStream registryPacket(String registryId, List<RegistryDataProvider.RegistryEntry> entries) {
-        ByteArrayOutputStream payload = new ByteArrayOutputStream();
-        MinecraftCodec.writeString(payload, registryId);
-        MinecraftCodec.writeVarInt(payload, entries.size());
-        for (RegistryDataProvider.RegistryEntry entry : entries) {
-            MinecraftCodec.writeString(payload, entry.key());
-            MinecraftCodec.writeBoolean(payload, entry.nbt() != null);
-            if (entry.nbt() != null) {
-                payload.writeBytes(entry.nbt());
-            }
-        }
-        return payload;
+        out.begin(CONFIG_C_FINISH_CONFIGURATION);
+        out.end();
+
+        return out.take().asReadOnlyBuffer();
     }
 
-    private static void writeBitSet(ByteArrayOutputStream out, BitSet bitSet) {
+    private static void writeBitSet(PacketWriter out, BitSet bitSet) {
         long[] longs = bitSet.toLongArray();
-        MinecraftCodec.writeVarInt(out, longs.length);
+        out.writeVarInt(longs.length);
         for (long value : longs) {
-            MinecraftCodec.writeLong(out, value);
+            out.writeLong(value);
         }
     }
 
     public void run() throws Exception {
-        Selector selector = Selector.open();
-        ServerSocketChannel server = ServerSocketChannel.open();
-        server.configureBlocking(false);
-        server.bind(new InetSocketAddress(host, port));
-        server.register(selector, SelectionKey.OP_ACCEPT);
+        if (sharedCountersFile != null && !sharedCountersFile.isBlank()) {
+            sharedCounters = SharedCounters.open(Path.of(sharedCountersFile));
+        }
 
-        while (true) {
-            selector.select(10);
-            var iterator = selector.selectedKeys().iterator();
-            while (iterator.hasNext()) {
-                SelectionKey key = iterator.next();
-                iterator.remove();
-
-                if (!key.isValid()) {
-                    continue;
-                }
+        ServerSocketChannel[] listeners = new ServerSocketChannel[acceptorThreads];
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i] = openListener();
+        }
 
-                try {
-                    if (key.isAcceptable()) {
-                        accept(selector, server);
-                    }
-                    if (key.isReadable()) {
-                        read(key);
-                    }
-                    if (key.isWritable()) {
-                        write(key);
-                    }
+        EventLoop[] loops = new EventLoop[workerThreads];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = createLoop(i);
+            Thread thread = new Thread(loops[i], "kimmoke-worker-" + i);
+            thread.start();
+        }
+
+        this.loops = loops;
+
+        if (statsInterval > 0) {
+            Thread reporter = new Thread(() -> reportStats(loops), "kimmoke-stats");
+            reporter.setDaemon(true);
+            reporter.start();
+        }
+
+        if (transferQueue != null) {
+            Thread releaser = new Thread(transferQueue::run, "kimmoke-transfers");
+            releaser.setDaemon(true);
+            releaser.start();
+        }
+
+        for (int i = 1; i < listeners.length; i++) {
+            ServerSocketChannel listener = listeners[i];
+            Thread acceptor = new Thread(() -> {
+                try (listener) {
+                    acceptLoop(listener, loops);
                 } catch (Exception e) {
-                    closeKey(key);
+                    System.err.println("[Kimmoke] " + Thread.currentThread().getName() + " stopped: " + e);
                 }
-            }
+            }, "kimmoke-acceptor-" + i);
+            acceptor.start();
+        }
 
-            sendKeepAlives(selector);
+        try (ServerSocketChannel server = listeners[0]) {
+            acceptLoop(server, loops);
         }
     }
 
-    private void sendKeepAlives(Selector selector) {
-        long keepAliveId = System.currentTimeMillis();
-        for (SelectionKey key : selector.keys()) {
-            if (!key.isValid()) {
-                continue;
+    private ServerSocketChannel openListener() throws Exception {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        try {
+            if (reusePort) {
+                if (!server.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                    throw new IllegalStateException("SO_REUSEPORT is not supported on this platform");
+                }
+                server.setOption(StandardSocketOptions.SO_REUSEPORT, true);
             }
-            Object attachment = key.attachment();
-            if (!(attachment instanceof Connection connection)) {
+            server.bind(new InetSocketAddress(host, port));
+            return server;
+        } catch (Exception e) {
+            server.close();
+            throw e;
+        }
+    }
+
+    private void acceptLoop(ServerSocketChannel server, EventLoop[] loops) throws Exception {
+        int next = 0;
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = server.accept();
+            } catch (ClosedChannelException e) {
+                throw e;
+            } catch (IOException e) {
+                stats.acceptFailures.increment();
+                Thread.sleep(ACCEPT_BACKOFF_MS);
                 continue;
-            }
-            if (connection.state != ConnectionState.PLAY) {
+            } catch (Exception e) {
                 continue;
             }
-            if (keepAliveId - connection.lastKeepAliveSentAt < KEEP_ALIVE_INTERVAL_MS) {
+
+            long addressHigh = 0L;
+            long addressLow = 0L;
+            try {
+                if (admission != null) {
+                    byte[] address = ((InetSocketAddress) channel.getRemoteAddress()).getAddress().getAddress();
+                    addressHigh = AdmissionControl.addressHigh(address);
+                    addressLow = AdmissionControl.addressLow(address);
+                    if (!admission.admit(addressHigh, addressLow)) {
+                        stats.admissionRejects.increment();
+                        addressHigh = 0L;
+                        addressLow = 0L;
+                        channel.setOption(StandardSocketOptions.SO_LINGER, 0);
+                        channel.close();
+                        continue;
+                    }
+                }
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            } catch (Exception e) {
+                if (addressHigh != 0L || addressLow != 0L) {
+                    admission.release(addressHigh, addressLow);
+                }
+                channel.close();
                 continue;
             }
 
-            ByteArrayOutputStream payload = new ByteArrayOutputStream();
-            MinecraftCodec.writeLong(payload, keepAliveId);
-            queue(connection, PLAY_C_KEEP_ALIVE, payload);
-            connection.lastKeepAliveSentAt = keepAliveId;
-            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            EventLoop target = leastLoaded(loops, next);
+            next = (target.index() + 1) % loops.length;
+            Connection connection = new Connection(channel, target);
+            connection.addressHigh = addressHigh;
+            connection.addressLow = addressLow;
+            target.register(connection);
         }
     }
 
-    private void sendPlayPackets(Connection connection) {
-        ByteArrayOutputStream login = new ByteArrayOutputStream();
-        MinecraftCodec.writeInt(login, 1);
-        MinecraftCodec.writeBoolean(login, hardcore);
-
-        MinecraftCodec.writeVarInt(login, 1);
-        MinecraftCodec.writeString(login, "minecraft:overworld");
-
-        MinecraftCodec.writeVarInt(login, 1);
-        MinecraftCodec.writeVarInt(login, 8);
-        MinecraftCodec.writeVarInt(login, 8);
-        MinecraftCodec.writeBoolean(login, false);
-        MinecraftCodec.writeBoolean(login, true);
-        MinecraftCodec.writeBoolean(login, false);
-
-        MinecraftCodec.writeVarInt(login, 0);
-        MinecraftCodec.writeString(login, "minecraft:overworld");
-        MinecraftCodec.writeLong(login, 0L);
-        MinecraftCodec.writeByte(login, 0);
-        MinecraftCodec.writeByte(login, 0xFF);
-        MinecraftCodec.writeBoolean(login, false);
-        MinecraftCodec.writeBoolean(login, true);
-        MinecraftCodec.writeBoolean(login, false);
-        MinecraftCodec.writeVarInt(login, 0);
-        MinecraftCodec.writeVarInt(login, 63);
-
-        MinecraftCodec.writeBoolean(login, false);
-
-        queue(connection, PLAY_C_LOGIN, login);
-
-        ByteArrayOutputStream abilities = new ByteArrayOutputStream();
-        MinecraftCodec.writeByte(abilities, 0x00);
-        MinecraftCodec.writeFloat(abilities, 0.05f);
-        MinecraftCodec.writeFloat(abilities, 0.10f);
-        queue(connection, PLAY_C_PLAYER_ABILITIES, abilities);
-
-        ByteArrayOutputStream heldItem = new ByteArrayOutputStream();
-        MinecraftCodec.writeVarInt(heldItem, 0);
-        queue(connection, PLAY_C_SET_HELD_ITEM, heldItem);
-
-        ByteArrayOutputStream health = new ByteArrayOutputStream();
-        MinecraftCodec.writeFloat(health, 20.0f);
-        MinecraftCodec.writeVarInt(health, 20);
-        MinecraftCodec.writeFloat(health, 5.0f);
-        queue(connection, PLAY_C_SET_HEALTH, health);
-
-        ByteArrayOutputStream experience = new ByteArrayOutputStream();
-        MinecraftCodec.writeFloat(experience, 0.0f);
-        MinecraftCodec.writeVarInt(experience, 0);
-        MinecraftCodec.writeVarInt(experience, 0);
-        queue(connection, PLAY_C_SET_EXPERIENCE, experience);
-
-        ByteArrayOutputStream time = new ByteArrayOutputStream();
-        MinecraftCodec.writeLong(time, 0L);
-        MinecraftCodec.writeLong(time, 6000L);
-        MinecraftCodec.writeBoolean(time, true);
-        queue(connection, PLAY_C_SET_TIME, time);
-
-        ByteArrayOutputStream brandPayload = new ByteArrayOutputStream();
-        MinecraftCodec.writeString(brandPayload, "minecraft:brand");
-        ByteArrayOutputStream brandData = new ByteArrayOutputStream();
-        MinecraftCodec.writeString(brandData, "Kimmoke");
-        brandPayload.writeBytes(brandData.toByteArray());
-        queue(connection, PLAY_C_CUSTOM_PAYLOAD, brandPayload);
-
-        ByteArrayOutputStream viewDistance = new ByteArrayOutputStream();
-        MinecraftCodec.writeVarInt(viewDistance, 8);
-        queue(connection, PLAY_C_UPDATE_VIEW_DISTANCE, viewDistance);
-
-        ByteArrayOutputStream viewPos = new ByteArrayOutputStream();
-        MinecraftCodec.writeVarInt(viewPos, 0);
-        MinecraftCodec.writeVarInt(viewPos, 0);
-        queue(connection, PLAY_C_UPDATE_VIEW_POSITION, viewPos);
-
-        ByteArrayOutputStream spawnPos = new ByteArrayOutputStream();
-        MinecraftCodec.writeString(spawnPos, "minecraft:overworld");
-        MinecraftCodec.writePosition(spawnPos, (int) Math.floor(spawnPosition.x()), (int) Math.floor(spawnPosition.y()), (int) Math.floor(spawnPosition.z()));
-        MinecraftCodec.writeFloat(spawnPos, spawnPosition.yaw());
-        MinecraftCodec.writeFloat(spawnPos, spawnPosition.pitch());
-        queue(connection, PLAY_C_SPAWN_POSITION, spawnPos);
-
-        ByteArrayOutputStream waitingChunks = new ByteArrayOutputStream();
-        MinecraftCodec.writeByte(waitingChunks, 13);
-        MinecraftCodec.writeFloat(waitingChunks, 0f);
-        queue(connection, PLAY_C_GAME_EVENT, waitingChunks);
-
-        ByteArrayOutputStream playerPos = new ByteArrayOutputStream();
-        MinecraftCodec.writeVarInt(playerPos, 1);
-        MinecraftCodec.writeDouble(playerPos, spawnPosition.x());
-        MinecraftCodec.writeDouble(playerPos, spawnPosition.y());
-        MinecraftCodec.writeDouble(playerPos, spawnPosition.z());
-        MinecraftCodec.writeDouble(playerPos, 0.0);
-        MinecraftCodec.writeDouble(playerPos, 0.0);
-        MinecraftCodec.writeDouble(playerPos, 0.0);
-        MinecraftCodec.writeFloat(playerPos, spawnPosition.yaw());
-        MinecraftCodec.writeFloat(playerPos, spawnPosition.pitch());
-        MinecraftCodec.writeInt(playerPos, 0);
-        queue(connection, PLAY_C_POSITION, playerPos);
-
-        queue(connection, PLAY_C_CHUNK_BATCH_START, new ByteArrayOutputStream());
-        ByteArrayOutputStream finished = new ByteArrayOutputStream();
-        MinecraftCodec.writeVarInt(finished, 0);
-        queue(connection, PLAY_C_CHUNK_BATCH_FINISHED, finished);
-    }
-
-    private void queue(Connection connection, int packetId, ByteArrayOutputStream payload) {
-        connection.writeQueue.add(MinecraftCodec.framedPacket(packetId, payload));
-    }
-
-    private void closeAfterFlush(SelectionKey key, Connection connection) {
-        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
-        connection.closeAfterFlush = true;
+    void releaseAdmission(Connection connection) {
+        if (connection.addressHigh != 0L || connection.addressLow != 0L) {
+            admission.release(connection.addressHigh, connection.addressLow);
+            connection.addressHigh = 0L;
+            connection.addressLow = 0L;
+        }
     }
 
-    private void closeConnection(Connection connection) {
-        connection.state = ConnectionState.CLOSED;
+    private static EventLoop leastLoaded(EventLoop[] loops, int start) {
+        EventLoop best = loops[start];
+        for (int i = 1; i < loops.length; i++) {
+            EventLoop candidate = loops[(start + i) % loops.length];
+            if (candidate.connectionCount() < best.connectionCount()) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    private void reportStats(EventLoop[] loops) {
+        while (true) {
+            try {
+                Thread.sleep(statsInterval * 1000L);
+            } catch (InterruptedException e) {
+                return;
+            }
+            String waiting = transferQueue != null ? " waiting=" + transferQueue.waiting() : "";
+            System.out.println("[Kimmoke] " + stats.report(loops) + waiting + " queued=" + (queuedBytes.get() >> 10) + "KiB " + BufferPool.report(loops));
+        }
+    }
+
+    void connectionOpened(Connection connection) {
+        stats.connectionsAccepted.increment();
+        connection.loop.timers().schedule(connection, handshakeTimeoutMillis);
+    }
+
+    void timerExpired(Connection connection) {
+        if (connection.state != ConnectionState.PLAY) {
+            stats.timeouts.increment();
+            closeKey(connection.key);
+            return;
+        }
+
+        boolean waiting = connection.queueTicket >= 0L;
+        long now = System.currentTimeMillis();
+        if (!waiting || now - connection.keepAliveSentAt >= KEEP_ALIVE_INTERVAL_MS) {
+            if (connection.keepAliveId != 0L && ++connection.missedKeepAlives >= maxMissedKeepAlives) {
+                stats.keepAliveTimeouts.increment();
+                closeKey(connection.key);
+                return;
+            }
+            queue(connection, keepAlive(connection).duplicate());
+            connection.keepAliveId = connection.loop.keepAliveId;
+            connection.keepAliveSentAt = now;
+        }
+        if (waiting) {
+            sendQueuePosition(connection);
+        }
+        if (connection.state == ConnectionState.CLOSED) {
+            return;
+        }
+        connection.loop.timers().schedule(connection, waiting ? QUEUE_STATUS_INTERVAL_MS : KEEP_ALIVE_INTERVAL_MS);
         try {
-            connection.channel.close();
-        } catch (Exception ignored) {
+            flush(connection.key, connection);
+        } catch (Exception e) {
+            closeKey(connection.key);
         }
     }
 
-    private void closeKey(SelectionKey key) {
+    public void broadcastChat(String message) {
+        broadcast(Broadcast.chat(message), Broadcast.PLAYING);
+    }
+
+    public void broadcastChat(String message, Predicate<? super Player> filter) {
+        broadcast(Broadcast.chat(message), Broadcast.playing(filter));
+    }
+
+    public void broadcastActionBar(String message) {
+        broadcast(Broadcast.actionBar(message), Broadcast.PLAYING);
+    }
+
+    public void broadcastActionBar(String message, Predicate<? super Player> filter) {
+        broadcast(Broadcast.actionBar(message), Broadcast.playing(filter));
+    }
+
+    public void broadcastTitle(String title, String subtitle, int fadeInTicks, int stayTicks, int fadeOutTicks) {
+        broadcast(Broadcast.title(title, subtitle, fadeInTicks, stayTicks, fadeOutTicks), Broadcast.PLAYING);
+    }
+
+    public void broadcastTitle(String title, String subtitle, int fadeInTicks, int stayTicks, int fadeOutTicks, Predicate<? super Player> filter) {
+        broadcast(Broadcast.title(title, subtitle, fadeInTicks, stayTicks, fadeOutTicks), Broadcast.playing(filter));
+    }
+
+    public void showBossBar(String title, float progress) {
+        Broadcast broadcast = Broadcast.encode(Broadcast.showBossBar(title, progress), precompression, Broadcast.PLAYING);
+        bossBar = broadcast;
+        broadcast(broadcast);
+    }
+
+    public void hideBossBar() {
+        bossBar = null;
+        broadcast(Broadcast.hideBossBar(), Broadcast.PLAYING);
+    }
+
+    void broadcast(ByteBuffer frames, Predicate<? super Connection> filter) {
+        broadcast(Broadcast.encode(frames, precompression, filter));
+    }
+
+    private void broadcast(Broadcast broadcast) {
+        EventLoop[] loops = this.loops;
+        if (loops == null) {
+            return;
+        }
+        for (EventLoop loop : loops) {
+            loop.broadcast(broadcast);
+        }
+    }
+
+    void deliver(Connection connection, List<Broadcast> broadcasts) {
+        boolean queued = false;
+        for (Broadcast broadcast : broadcasts) {
+            if (connection.state != ConnectionState.CLOSED && broadcast.filter().test(connection)) {
+                queue(connection, broadcast.frames(connection.compressed).duplicate());
+                queued = true;
+            }
+        }
+        if (!queued) {
+            return;
+        }
         try {
-            Object attachment = key.attachment();
-            if (attachment instanceof Connection connection) {
-                connection.channel.close();
+            flush(connection.key, connection);
+        } catch (Exception e) {
+            closeKey(connection.key);
+        }
+    }
+
+    void transferPlayer(Connection connection) {
+        if (connection.state != ConnectionState.PLAY || connection.queueTicket < 0L) {
+            return;
+        }
+        connection.queueTicket = -1L;
+        stats.transfers.increment();
+        queue(connection, transferQueue.transfer(connection.compressed).duplicate());
+        try {
+            flush(connection.key, connection);
+        } catch (Exception e) {
+            closeKey(connection.key);
+        }
+    }
+
+    private void sendQueuePosition(Connection connection) {
+        PacketCompression compression = connection.compressed ? connection.loop.compression() : null;
+        queue(connection, transferQueue.positionBar(transferQueue.position(connection), compression).duplicate());
+    }
+
+    private ByteBuffer keepAlive(Connection connection) {
+        EventLoop loop = connection.loop;
+        if (loop.keepAliveTick != loop.timers().currentTick()) {
+            PacketWriter out = loop.packetWriter();
+            out.begin(PLAY_C_KEEP_ALIVE);
+            loop.keepAliveId = System.currentTimeMillis();
+            out.writeLong(loop.keepAliveId);
+            out.end();
+            loop.keepAlive = out.take().asReadOnlyBuffer();
+            loop.keepAliveCompressed = loop.compression() == null ? null
+                : loop.compression().compressFrames(loop.keepAlive, false).asReadOnlyBuffer();
+            loop.keepAliveTick = loop.timers().currentTick();
+        }
+        return connection.compressed ? loop.keepAliveCompressed : loop.keepAlive;
+    }
+
+    private void sendPlayPackets(Connection connection) {
+        int entityId = Math.floorMod(nextEntityId.getAndIncrement(), Integer.MAX_VALUE) + 1;
+        int length = playLogin.remaining();
+        ByteBuffer login = ByteBuffer.allocate(length);
+        login.put(0, playLogin, 0, length);
+        login.putInt(playEntityIdOffset, entityId);
+        queue(connection, connection.compressed ? connection.loop.compression().compressFrames(login, false) : login);
+        queue(connection, playPackets.duplicate());
+        connection.nextChunk = 0;
+    }
+
+    private void encodePlayPackets() {
+        PacketWriter out = new PacketWriter(1 << 10, false);
+
+        out.begin(PLAY_C_LOGIN);
+        int entityIdMark = out.mark();
+        out.writeInt(0);
+        out.writeBoolean(hardcore);
+
+        out.writeVarInt(1);
+        out.writeString("minecraft:overworld");
+
+        out.writeVarInt(1);
+        out.writeVarInt(viewDistance);
+        out.writeVarInt(viewDistance);
+        out.writeBoolean(false);
+        out.writeBoolean(true);
+        out.writeBoolean(false);
+
+        out.writeVarInt(0);
+        out.writeString("minecraft:overworld");
+        out.writeLong(0L);
+        out.writeByte(0);
+        out.writeByte(0xFF);
+        out.writeBoolean(false);
+        out.writeBoolean(true);
+        out.writeBoolean(false);
+        out.writeVarInt(0);
+        out.writeVarInt(63);
+
+        out.writeBoolean(false);
+        out.end();
+        playEntityIdOffset = out.offsetOf(entityIdMark);
+        playLogin = out.take().asReadOnlyBuffer();
+
+        out = new PacketWriter(1 << 14, true);
+        out.begin(PLAY_C_PLAYER_ABILITIES);
+        out.writeByte(0x00);
+        out.writeFloat(0.05f);
+        out.writeFloat(0.10f);
+        out.end();
+
+        out.begin(PLAY_C_SET_HELD_ITEM);
+        out.writeVarInt(0);
+        out.end();
+
+        out.begin(PLAY_C_SET_HEALTH);
+        out.writeFloat(20.0f);
+        out.writeVarInt(20);
+        out.writeFloat(5.0f);
+        out.end();
+
+        out.begin(PLAY_C_SET_EXPERIENCE);
+        out.writeFloat(0.0f);
+        out.writeVarInt(0);
+        out.writeVarInt(0);
+        out.end();
+
+        out.begin(PLAY_C_SET_TIME);
+        out.writeLong(0L);
+        out.writeLong(6000L);
+        out.writeBoolean(true);
+        out.end();
+
+        out.begin(PLAY_C_CUSTOM_PAYLOAD);
+        out.writeString("minecraft:brand");
+        out.writeString("Kimmoke");
+        out.end();
+
+        int spawnChunkX = (int) Math.floor(spawnPosition.x()) >> 4;
+        int spawnChunkZ = (int) Math.floor(spawnPosition.z()) >> 4;
+        out.begin(PLAY_C_UPDATE_VIEW_DISTANCE);
+        out.writeVarInt(viewDistance);
+        out.end();
+
+        out.begin(PLAY_C_UPDATE_VIEW_POSITION);
+        out.writeVarInt(spawnChunkX);
+        out.writeVarInt(spawnChunkZ);
+        out.end();
+
+        out.begin(PLAY_C_SPAWN_POSITION);
+        out.writeString("minecraft:overworld");
+        out.writePosition((int) Math.floor(spawnPosition.x()), (int) Math.floor(spawnPosition.y()), (int) Math.floor(spawnPosition.z()));
+        out.writeFloat(spawnPosition.yaw());
+        out.writeFloat(spawnPosition.pitch());
+        out.end();
+
+        out.begin(PLAY_C_GAME_EVENT);
+        out.writeByte(13);
+        out.writeFloat(0f);
+        out.end();
+
+        out.begin(PLAY_C_POSITION);
+        out.writeVarInt(1);
+        out.writeDouble(spawnPosition.x());
+        out.writeDouble(spawnPosition.y());
+        out.writeDouble(spawnPosition.z());
+        out.writeDouble(0.0);
+        out.writeDouble(0.0);
+        out.writeDouble(0.0);
+        out.writeFloat(spawnPosition.yaw());
+        out.writeFloat(spawnPosition.pitch());
+        out.writeInt(0);
+        out.end();
+
+        out.begin(PLAY_C_CHUNK_BATCH_START);
+        out.end();
+
+        playPackets = out.take().asReadOnlyBuffer();
+        if (playLogin.remaining() + playPackets.remaining() > maxQueuedBytesPerConnection) {
+            throw new IllegalStateException("The join packets take " + ((playLogin.remaining() + playPackets.remaining()) >> 10)
+                + " KiB, more than maxQueuedKilobytesPerConnection");
+        }
+
+        chunkOrder = new long[(2 * viewDistance + 1) * (2 * viewDistance + 1)];
+        int chunks = 0;
+        for (int ring = 0; ring <= viewDistance; ring++) {
+            for (int dx = -ring; dx <= ring; dx++) {
+                for (int dz = -ring; dz <= ring; dz++) {
+                    if (Math.max(Math.abs(dx), Math.abs(dz)) == ring) {
+                        chunkOrder[chunks++] = (long) (spawnChunkX + dx) << 32 | ((spawnChunkZ + dz) & 0xFFFF_FFFFL);
+                    }
+                }
             }
-            key.cancel();
-        } catch (Exception ignored) {
         }
+
+        if (world == null) {
+            ByteBuffer sections = ChunkEncoder.emptySections(Math.max(0, registryFrames.entryIndex(BIOME_REGISTRY, VOID_BIOME)));
+            out = new PacketWriter(1 << 14, true);
+            for (long chunk : chunkOrder) {
+                ChunkEncoder.writeChunk(out, (int) (chunk >> 32), (int) chunk, sections);
+            }
+            ByteBuffer frames = out.take().asReadOnlyBuffer();
+            voidChunks = ChunkFrames.split(frames, precompression == null ? null : precompression.compressFrames(frames, true));
+        }
+
+        out = new PacketWriter(16, false);
+        out.begin(PLAY_C_CHUNK_BATCH_FINISHED);
+        out.writeVarInt(chunks);
+        out.end();
+        chunkBatchFinished = ChunkFrames.of(out.take(), precompression);
+    }
+
+    private boolean queueChunks(Connection connection) {
+        if (connection.chunkLoading || connection.state != ConnectionState.PLAY) {
+            return false;
+        }
+        int queued = 0;
+        while (connection.nextChunk < chunkOrder.length && queued < CHUNKS_PER_FLUSH) {
+            ChunkFrames chunk;
+            if (world == null) {
+                chunk = voidChunks[connection.nextChunk];
+            } else {
+                long position = chunkOrder[connection.nextChunk];
+                CompletableFuture<ChunkFrames> loading = world.chunk((int) (position >> 32), (int) position);
+                if (!loading.isDone()) {
+                    connection.chunkLoading = true;
+                    loading.whenComplete((loaded, error) -> connection.loop.chunkLoaded(connection));
+                    return queued > 0;
+                }
+                chunk = loading.join();
+            }
+            queue(connection, chunk.frames(connection.compressed).duplicate());
+            connection.nextChunk++;
+            queued++;
+        }
+        if (connection.nextChunk == chunkOrder.length) {
+            queue(connection, chunkBatchFinished.frames(connection.compressed).duplicate());
+            connection.nextChunk = -1;
+            queued++;
+        }
+        return queued > 0;
+    }
+
+    void chunkLoaded(Connection connection) {
+        connection.chunkLoading = false;
+        if (connection.state != ConnectionState.PLAY) {
+            return;
+        }
+        try {
+            flush(connection.key, connection);
+        } catch (Exception e) {
+            closeKey(connection.key);
+        }
+    }
+
+    private void queue(Connection connection, PacketWriter out) {
+        ByteBuffer frames = out.take();
+        queue(connection, connection.compressed ? connection.loop.compression().compressFrames(frames, false) : frames);
     }
 
-    private enum ConnectionState {
-        HANDSHAKE,
-        STATUS,
-        LOGIN,
-        CONFIGURATION,
-        PLAY,
-        CLOSED
+    private void queue(Connection connection, ByteBuffer buffer) {
+        if (connection.state == ConnectionState.CLOSED) {
+            return;
+        }
+        if (buffer.isReadOnly()) {
+            if (connection.sharedQueued >= MAX_SHARED_QUEUED_PER_CONNECTION) {
+                stats.slowConsumerDisconnects.increment();
+                closeKey(connection.key);
+                return;
+            }
+            connection.sharedQueued++;
+            connection.enqueue(buffer);
+            return;
+        }
+        int bytes = buffer.limit();
+        if (connection.queuedBytes + bytes > maxQueuedBytesPerConnection || queuedBytes.get() + bytes > maxQueuedBytesTotal) {
+            stats.slowConsumerDisconnects.increment();
+            closeKey(connection.key);
+            return;
+        }
+        connection.queuedBytes += bytes;
+        queuedBytes.addAndGet(bytes);
+        connection.enqueue(buffer);
     }
 
-    private static final class Connection {
-        private final SocketChannel channel;
-        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(1 << 20);
-        private final Deque<ByteBuffer> writeQueue = new ArrayDeque<>();
-        private final UUID fallbackUuid = new UUID(new Random().nextLong(), new Random().nextLong());
+    private void dequeued(Connection connection, ByteBuffer buffer) {
+        if (buffer.isReadOnly()) {
+            connection.sharedQueued--;
+            return;
+        }
+        connection.queuedBytes -= buffer.limit();
+        queuedBytes.addAndGet(-buffer.limit());
+    }
 
-        private ConnectionState state = ConnectionState.HANDSHAKE;
-        private String username = "Player";
-        private UUID uuid = fallbackUuid;
-        private int velocityQueryId = 0;
-        private boolean closeAfterFlush = false;
-        private long lastKeepAliveSentAt = 0L;
+    private void closeConnection(Connection connection) {
+        closeKey(connection.key);
+    }
 
-        private Connection(SocketChannel channel) {
-            this.channel = channel;
+    void closeKey(SelectionKey key) {
+        try {
+            Object attachment = key.attachment();
+            if (attachment instanceof Connection connection && connection.state != ConnectionState.CLOSED) {
+                if (connection.state == ConnectionState.PLAY) {
+                    playerLeft();
+                }
+                connection.state = ConnectionState.CLOSED;
+                connection.loop.timers().cancel(connection);
+                connection.loop.connectionClosed();
+                releaseAdmission(connection);
+                queuedBytes.addAndGet(-connection.queuedBytes);
+                connection.queuedBytes = 0L;
+                connection.sharedQueued = 0;
+                connection.writeQueue = null;
+                connection.releaseReadBuffer();
+                connection.releaseCipherBuffer();
+                connection.channel.close();
+            }
+            key.cancel();
+        } catch (Exception ignored) {
         }
     }
-}
\ No newline at end of file
+}
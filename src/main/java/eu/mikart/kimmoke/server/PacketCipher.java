@@ -0,0 +1,45 @@
+package eu.mikart.kimmoke.server;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+final class PacketCipher {
+    private static final String TRANSFORMATION = "AES/CFB8/NoPadding";
+
+    private final Cipher encrypt;
+    private final Cipher decrypt;
+
+    PacketCipher(byte[] sharedSecret) throws GeneralSecurityException {
+        SecretKeySpec key = new SecretKeySpec(sharedSecret, "AES");
+        IvParameterSpec iv = new IvParameterSpec(sharedSecret);
+        this.encrypt = Cipher.getInstance(TRANSFORMATION);
+        this.encrypt.init(Cipher.ENCRYPT_MODE, key, iv);
+        this.decrypt = Cipher.getInstance(TRANSFORMATION);
+        this.decrypt.init(Cipher.DECRYPT_MODE, key, iv);
+    }
+
+    void decrypt(ByteBuffer buffer, int start, int end) {
+        if (start == end) {
+            return;
+        }
+        ByteBuffer input = buffer.duplicate().limit(end).position(start);
+        try {
+            decrypt.update(input, input.duplicate());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to decrypt", e);
+        }
+    }
+
+    void encrypt(ByteBuffer source, int length, ByteBuffer target) {
+        int start = source.position();
+        try {
+            encrypt.update(source.slice(start, length), target);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to encrypt", e);
+        }
+        source.position(start + length);
+    }
+}
@@ -0,0 +1,113 @@
+package eu.mikart.kimmoke.server;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+final class PacketCompression {
+    private static final int MAX_DECOMPRESSED_LENGTH = BufferPool.maxCapacity();
+
+    private final int threshold;
+    private final Deflater deflater;
+    private final Inflater inflater = new Inflater();
+    private ByteBuffer deflated = ByteBuffer.allocate(1 << 12);
+    private ByteBuffer inflated = ByteBuffer.allocate(1 << 12);
+    private ByteBuffer output = ByteBuffer.allocate(1 << 12);
+
+    PacketCompression(int threshold, int level) {
+        this.threshold = threshold;
+        this.deflater = new Deflater(level);
+    }
+
+    ByteBuffer compressFrames(ByteBuffer frames, boolean direct) {
+        ByteBuffer source = frames.duplicate();
+        output.clear();
+        while (source.hasRemaining()) {
+            int length = MinecraftCodec.readVarInt(source);
+            ByteBuffer body = source.slice(source.position(), length);
+            source.position(source.position() + length);
+
+            if (length < threshold) {
+                ensureOutput(6 + length);
+                putVarInt(output, length + 1);
+                output.put((byte) 0);
+                output.put(body);
+                continue;
+            }
+
+            ByteBuffer compressed = deflate(body);
+            ensureOutput(10 + compressed.remaining());
+            putVarInt(output, MinecraftCodec.varIntSize(length) + compressed.remaining());
+            putVarInt(output, length);
+            output.put(compressed);
+        }
+
+        output.flip();
+        ByteBuffer result = direct ? ByteBuffer.allocateDirect(output.remaining()) : ByteBuffer.allocate(output.remaining());
+        result.put(output).flip();
+        return result;
+    }
+
+    ByteBuffer decompress(ByteBuffer frame) {
+        int dataLength = MinecraftCodec.readVarInt(frame);
+        if (dataLength == 0) {
+            return frame;
+        }
+        if (dataLength < threshold || dataLength > MAX_DECOMPRESSED_LENGTH) {
+            throw new IllegalStateException("Invalid decompressed length: " + dataLength);
+        }
+
+        if (inflated.capacity() < dataLength) {
+            inflated = ByteBuffer.allocate(Math.max(dataLength, inflated.capacity() * 2));
+        }
+        inflated.clear().limit(dataLength);
+        inflater.reset();
+        inflater.setInput(frame);
+        try {
+            inflater.inflate(inflated);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Malformed compressed packet", e);
+        }
+        if (inflated.hasRemaining() || !inflater.finished()) {
+            throw new IllegalStateException("Compressed packet length mismatch");
+        }
+        return inflated.flip();
+    }
+
+    private ByteBuffer deflate(ByteBuffer body) {
+        deflater.reset();
+        deflater.setInput(body);
+        deflater.finish();
+        deflated.clear();
+        while (!deflater.finished()) {
+            if (!deflated.hasRemaining()) {
+                ByteBuffer grown = ByteBuffer.allocate(deflated.capacity() * 2);
+                deflated.flip();
+                grown.put(deflated);
+                deflated = grown;
+            }
+            deflater.deflate(deflated);
+        }
+        return deflated.flip();
+    }
+
+    private void ensureOutput(int bytes) {
+        if (output.remaining() >= bytes) {
+            return;
+        }
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(output.capacity() * 2, output.position() + bytes));
+        output.flip();
+        grown.put(output);
+        output = grown;
+    }
+
+    private static void putVarInt(ByteBuffer buffer, int value) {
+        int v = value;
+        while ((v & ~0x7F) != 0) {
+            buffer.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        buffer.put((byte) v);
+    }
+}
@@ -0,0 +1,255 @@
+package eu.mikart.kimmoke.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+final class PacketWriter {
+    private static final int LENGTH_PREFIX_SIZE = 3;
+    private static final int MAX_PACKET_LENGTH = (1 << 21) - 1;
+
+    private final boolean direct;
+    private ByteBuffer buffer;
+    private int[] frames = new int[16];
+    private int frameCount = 0;
+    private int packetStart = -1;
+
+    PacketWriter(int initialCapacity, boolean direct) {
+        this.direct = direct;
+        this.buffer = allocate(initialCapacity);
+    }
+
+    void begin(int packetId) {
+        if (packetStart >= 0) {
+            throw new IllegalStateException("Previous packet was not ended");
+        }
+        ensure(LENGTH_PREFIX_SIZE);
+        packetStart = buffer.position();
+        buffer.position(packetStart + LENGTH_PREFIX_SIZE);
+        writeVarInt(packetId);
+    }
+
+    void end() {
+        if (packetStart < 0) {
+            throw new IllegalStateException("No packet was started");
+        }
+        int length = buffer.position() - packetStart - LENGTH_PREFIX_SIZE;
+        if (length > MAX_PACKET_LENGTH) {
+            throw new IllegalStateException("Packet too large: " + length);
+        }
+
+        int frameStart = packetStart + LENGTH_PREFIX_SIZE - MinecraftCodec.varIntSize(length);
+        int index = frameStart;
+        int value = length;
+        while ((value & ~0x7F) != 0) {
+            buffer.put(index++, (byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put(index, (byte) value);
+
+        addFrame(frameStart, buffer.position());
+        packetStart = -1;
+    }
+
+    void writeFrames(ByteBuffer framed) {
+        if (packetStart >= 0) {
+            throw new IllegalStateException("Previous packet was not ended");
+        }
+        int start = buffer.position();
+        writeBytes(framed);
+        addFrame(start, buffer.position());
+    }
+
+    int mark() {
+        return buffer.position();
+    }
+
+    int offsetOf(int mark) {
+        int offset = 0;
+        for (int i = 0; i < frameCount; i++) {
+            int start = frames[i * 2];
+            int end = frames[i * 2 + 1];
+            if (mark >= start && mark < end) {
+                return offset + mark - start;
+            }
+            offset += end - start;
+        }
+        throw new IllegalArgumentException("Mark is not inside a finished packet: " + mark);
+    }
+
+    int size() {
+        int size = 0;
+        for (int i = 0; i < frameCount; i++) {
+            size += frames[i * 2 + 1] - frames[i * 2];
+        }
+        return size;
+    }
+
+    ByteBuffer take() {
+        ByteBuffer out = direct ? ByteBuffer.allocateDirect(size()) : ByteBuffer.allocate(size());
+        int position = 0;
+        for (int i = 0; i < frameCount; i++) {
+            int start = frames[i * 2];
+            int length = frames[i * 2 + 1] - start;
+            out.put(position, buffer, start, length);
+            position += length;
+        }
+        reset();
+        return out;
+    }
+
+    ByteBuffer takeRaw() {
+        if (packetStart >= 0 || frameCount > 0) {
+            throw new IllegalStateException("Writer holds framed packets");
+        }
+        ByteBuffer out = direct ? ByteBuffer.allocateDirect(buffer.position()) : ByteBuffer.allocate(buffer.position());
+        out.put(0, buffer, 0, buffer.position());
+        buffer.clear();
+        return out;
+    }
+
+    void reset() {
+        if (packetStart >= 0) {
+            throw new IllegalStateException("Packet was not ended");
+        }
+        buffer.clear();
+        frameCount = 0;
+    }
+
+    void writeVarInt(int value) {
+        ensure(5);
+        int v = value;
+        while ((v & ~0x7F) != 0) {
+            buffer.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        buffer.put((byte) v);
+    }
+
+    void writeBoolean(boolean value) {
+        ensure(1);
+        buffer.put((byte) (value ? 1 : 0));
+    }
+
+    void writeByte(int value) {
+        ensure(1);
+        buffer.put((byte) value);
+    }
+
+    void writeShort(int value) {
+        ensure(2);
+        buffer.putShort((short) value);
+    }
+
+    void writeInt(int value) {
+        ensure(4);
+        buffer.putInt(value);
+    }
+
+    void writeLong(long value) {
+        ensure(8);
+        buffer.putLong(value);
+    }
+
+    void writeFloat(float value) {
+        ensure(4);
+        buffer.putFloat(value);
+    }
+
+    void writeDouble(double value) {
+        ensure(8);
+        buffer.putDouble(value);
+    }
+
+    void writeString(String value) {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            if (value.charAt(i) >= 0x80) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                writeVarInt(bytes.length);
+                writeBytes(bytes);
+                return;
+            }
+        }
+
+        writeVarInt(length);
+        ensure(length);
+        for (int i = 0; i < length; i++) {
+            buffer.put((byte) value.charAt(i));
+        }
+    }
+
+    void writeText(String text) {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            length += c != 0 && c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+        }
+        if (length > 0xFFFF) {
+            throw new IllegalArgumentException("Text too long: " + length);
+        }
+
+        writeByte(NbtIo.TAG_STRING);
+        writeShort(length);
+        ensure(length);
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c != 0 && c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | c >> 6));
+                buffer.put((byte) (0x80 | c & 0x3F));
+            } else {
+                buffer.put((byte) (0xE0 | c >> 12));
+                buffer.put((byte) (0x80 | c >> 6 & 0x3F));
+                buffer.put((byte) (0x80 | c & 0x3F));
+            }
+        }
+    }
+
+    void writeUuid(long most, long least) {
+        writeLong(most);
+        writeLong(least);
+    }
+
+    void writePosition(int x, int y, int z) {
+        long packed = ((long) (x & 0x3FFFFFF) << 38)
+            | ((long) (z & 0x3FFFFFF) << 12)
+            | (y & 0xFFFL);
+        writeLong(packed);
+    }
+
+    void writeBytes(byte[] bytes) {
+        ensure(bytes.length);
+        buffer.put(bytes);
+    }
+
+    void writeBytes(ByteBuffer bytes) {
+        ensure(bytes.remaining());
+        buffer.put(bytes.duplicate());
+    }
+
+    private void addFrame(int start, int end) {
+        if (frameCount * 2 == frames.length) {
+            frames = Arrays.copyOf(frames, frames.length * 2);
+        }
+        frames[frameCount * 2] = start;
+        frames[frameCount * 2 + 1] = end;
+        frameCount++;
+    }
+
+    private void ensure(int bytes) {
+        if (buffer.remaining() >= bytes) {
+            return;
+        }
+        int capacity = Math.max(buffer.capacity() * 2, buffer.position() + bytes);
+        ByteBuffer grown = allocate(capacity);
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+}
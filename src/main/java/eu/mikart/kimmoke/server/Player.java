@@ -0,0 +1,11 @@
+package eu.mikart.kimmoke.server;
+
+import java.util.UUID;
+
+public interface Player {
+    UUID uuid();
+
+    int latencyMillis();
+
+    boolean waitingForTransfer();
+}
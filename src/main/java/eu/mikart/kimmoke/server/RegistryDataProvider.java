@@ -1,9 +1,11 @@
 package eu.mikart.kimmoke.server;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 final class RegistryDataProvider {
     private static final String CODEC_NBT_RESOURCE = "/codec_1_21_11.nbt";
@@ -17,26 +19,19 @@ final class RegistryDataProvider {
                 throw new IllegalStateException("Missing codec resource: " + CODEC_NBT_RESOURCE);
             }
 
-            Map<String, NbtIo.Tag> root = NbtIo.readCompressedRootCompound(input);
-
+            PacketWriter arena = new PacketWriter(1 << 16, false);
             List<RegistryData> registries = new ArrayList<>();
-            for (Map.Entry<String, NbtIo.Tag> rootEntry : root.entrySet()) {
-                String id = rootEntry.getKey();
-                Map<String, NbtIo.Tag> registry = asCompound(rootEntry.getValue());
-                NbtIo.ListTag values = asList(registry.get("value"));
-
-                List<RegistryEntry> entries = new ArrayList<>(values.values().size());
-                for (Object value : values.values()) {
-                    @SuppressWarnings("unchecked")
-                    Map<String, NbtIo.Tag> entry = (Map<String, NbtIo.Tag>) value;
-                    String key = asString(entry.get("name"));
-                    NbtIo.Tag element = entry.get("element");
-                    byte[] nbt = element == null ? null : NbtIo.writeUnnamed(element);
-                    entries.add(new RegistryEntry(key, nbt));
-                }
-
-                registries.add(new RegistryData(id, entries));
-            }
+            NbtIo.readRootCompound(NbtIo.readCompressed(input), (id, type, registry) -> {
+                expect(type, NbtIo.TAG_COMPOUND);
+                EntriesVisitor entries = new EntriesVisitor(arena);
+                NbtIo.readCompound(registry, (field, fieldType, values) -> {
+                    if (field.equals("value")) {
+                        expect(fieldType, NbtIo.TAG_LIST);
+                        NbtIo.readList(values, entries);
+                    }
+                });
+                registries.add(entries.finish(id));
+            });
 
             return List.copyOf(registries);
         } catch (Exception e) {
@@ -44,32 +39,97 @@ final class RegistryDataProvider {
         }
     }
 
-    private static Map<String, NbtIo.Tag> asCompound(NbtIo.Tag tag) {
-        if (tag == null || tag.type() != 10) {
-            throw new IllegalStateException("Expected compound tag");
+    private static void writeEntry(ByteBuffer in, PacketWriter arena) throws IOException {
+        EntryVisitor visitor = new EntryVisitor();
+        NbtIo.readCompound(in, visitor);
+        if (visitor.key == null) {
+            throw new IllegalStateException("Registry entry without a name");
+        }
+
+        arena.writeString(visitor.key);
+        arena.writeBoolean(visitor.element != null);
+        if (visitor.element != null) {
+            arena.writeByte(visitor.elementType);
+            arena.writeBytes(visitor.element);
         }
-        @SuppressWarnings("unchecked")
-        Map<String, NbtIo.Tag> value = (Map<String, NbtIo.Tag>) tag.value();
-        return value;
     }
 
-    private static NbtIo.ListTag asList(NbtIo.Tag tag) {
-        if (tag == null || tag.type() != 9) {
-            throw new IllegalStateException("Expected list tag");
+    private static void expect(int type, int expected) {
+        if (type != expected) {
+            throw new IllegalStateException("Expected tag type " + expected + ", got " + type);
         }
-        return (NbtIo.ListTag) tag.value();
     }
 
-    private static String asString(NbtIo.Tag tag) {
-        if (tag == null || tag.type() != 8) {
-            throw new IllegalStateException("Expected string tag");
+    private static final class EntriesVisitor implements NbtIo.ListVisitor {
+        private final PacketWriter arena;
+        private int[] offsets = new int[64];
+        private int count = 0;
+
+        private EntriesVisitor(PacketWriter arena) {
+            this.arena = arena;
+        }
+
+        @Override
+        public void visit(int index, int elementType, ByteBuffer element) throws IOException {
+            expect(elementType, NbtIo.TAG_COMPOUND);
+            if (count + 1 == offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            offsets[count++] = arena.mark();
+            writeEntry(element, arena);
+        }
+
+        private RegistryData finish(String id) {
+            offsets[count] = arena.mark();
+            return new RegistryData(id, arena.takeRaw().asReadOnlyBuffer(), Arrays.copyOf(offsets, count + 1));
         }
-        return (String) tag.value();
     }
 
-    record RegistryData(String id, List<RegistryEntry> entries) {
+    private static final class EntryVisitor implements NbtIo.CompoundVisitor {
+        private String key;
+        private int elementType;
+        private ByteBuffer element;
+
+        @Override
+        public void visit(String name, int type, ByteBuffer payload) throws IOException {
+            if (name.equals("name")) {
+                expect(type, NbtIo.TAG_STRING);
+                key = NbtIo.readString(payload);
+            } else if (name.equals("element")) {
+                int start = payload.position();
+                NbtIo.skip(payload, type);
+                elementType = type;
+                element = payload.slice(start, payload.position() - start);
+            }
+        }
     }
 
-    record RegistryEntry(String key, byte[] nbt) {
+    record RegistryData(String id, ByteBuffer entries, int[] offsets) {
+        int size() {
+            return offsets.length - 1;
+        }
+
+        ByteBuffer entry(int index) {
+            return entries.slice(offsets[index], offsets[index + 1] - offsets[index]);
+        }
+
+        int keyLength(int index) {
+            ByteBuffer entry = entry(index);
+            int length = MinecraftCodec.readVarInt(entry);
+            return entry.position() + length;
+        }
+
+        boolean keyStartsWith(int index, byte[] prefix) {
+            ByteBuffer entry = entry(index);
+            if (MinecraftCodec.readVarInt(entry) < prefix.length) {
+                return false;
+            }
+            for (int i = 0; i < prefix.length; i++) {
+                if (entry.get(entry.position() + i) != prefix[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
     }
 }
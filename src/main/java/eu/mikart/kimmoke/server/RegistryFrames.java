@@ -0,0 +1,174 @@
+package eu.mikart.kimmoke.server;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+record RegistryFrames(ByteBuffer registries, ByteBuffer registriesKnownPacks, ByteBuffer tags) {
+    static final String ARTIFACT_RESOURCE = "/registries_1_21_11.bin";
+
+    private static final int MAGIC = 0x4B4D4B52;
+    private static final int VERSION = 1;
+    private static final int CONFIG_C_REGISTRY_DATA = 0x07;
+    private static final int CONFIG_C_TAGS = 0x0D;
+    private static final byte[] CORE_PACK_PREFIX = "minecraft:".getBytes(StandardCharsets.UTF_8);
+
+    static RegistryFrames load() {
+        try (InputStream input = RegistryFrames.class.getResourceAsStream(ARTIFACT_RESOURCE)) {
+            if (input != null) {
+                RegistryFrames frames = read(ByteBuffer.wrap(input.readAllBytes()));
+                if (frames != null) {
+                    return frames;
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read " + ARTIFACT_RESOURCE, e);
+        }
+
+        List<RegistryDataProvider.RegistryData> registryData = RegistryDataProvider.load();
+        return encode(registryData, TagsDataProvider.load(registryData));
+    }
+
+    static RegistryFrames encode(List<RegistryDataProvider.RegistryData> registryData, List<TagsDataProvider.TagRegistry> tagsData) {
+        PacketWriter out = new PacketWriter(1 << 17, false);
+        writeRegistries(out, registryData, false);
+        ByteBuffer registries = out.take().asReadOnlyBuffer();
+        writeRegistries(out, registryData, true);
+        ByteBuffer registriesKnownPacks = out.take().asReadOnlyBuffer();
+        writeTags(out, tagsData);
+        ByteBuffer tags = out.take().asReadOnlyBuffer();
+        return new RegistryFrames(registries, registriesKnownPacks, tags);
+    }
+
+    static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            throw new IllegalArgumentException("Usage: RegistryFrames <output file>");
+        }
+        Path output = Path.of(args[0]);
+        if (output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+
+        List<RegistryDataProvider.RegistryData> registryData = RegistryDataProvider.load();
+        RegistryFrames frames = encode(registryData, TagsDataProvider.load(registryData));
+        try (OutputStream stream = Files.newOutputStream(output)) {
+            frames.write(stream);
+        }
+    }
+
+    void write(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeSection(out, registries);
+        writeSection(out, registriesKnownPacks);
+        writeSection(out, tags);
+        out.flush();
+    }
+
+    int entryIndex(String registryId, String key) {
+        return entryIds(registryId).getOrDefault(key, -1);
+    }
+
+    Map<String, Integer> entryIds(String registryId) {
+        Map<String, Integer> ids = new HashMap<>();
+        ByteBuffer frames = registries.duplicate();
+        try {
+            while (frames.hasRemaining()) {
+                int length = MinecraftCodec.readVarInt(frames);
+                int end = frames.position() + length;
+                MinecraftCodec.readVarInt(frames);
+                if (!MinecraftCodec.readString(frames).equals(registryId)) {
+                    frames.position(end);
+                    continue;
+                }
+                int count = MinecraftCodec.readVarInt(frames);
+                for (int i = 0; i < count; i++) {
+                    ids.put(MinecraftCodec.readString(frames), i);
+                    if (frames.get() != 0) {
+                        NbtIo.skip(frames, frames.get() & 0xFF);
+                    }
+                }
+                break;
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Malformed registry frames", e);
+        }
+        return ids;
+    }
+
+    private static RegistryFrames read(ByteBuffer data) {
+        if (data.remaining() < 8 || data.getInt() != MAGIC || data.getInt() != VERSION) {
+            return null;
+        }
+        ByteBuffer registries = readSection(data);
+        ByteBuffer registriesKnownPacks = readSection(data);
+        ByteBuffer tags = readSection(data);
+        if (tags == null || data.hasRemaining()) {
+            return null;
+        }
+        return new RegistryFrames(registries, registriesKnownPacks, tags);
+    }
+
+    private static ByteBuffer readSection(ByteBuffer data) {
+        if (data.remaining() < 4) {
+            return null;
+        }
+        int length = data.getInt();
+        if (length < 0 || length > data.remaining()) {
+            return null;
+        }
+        ByteBuffer section = data.slice(data.position(), length).asReadOnlyBuffer();
+        data.position(data.position() + length);
+        return section;
+    }
+
+    private static void writeSection(DataOutputStream out, ByteBuffer section) throws IOException {
+        ByteBuffer source = section.duplicate();
+        byte[] bytes = new byte[source.remaining()];
+        source.get(bytes);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeRegistries(PacketWriter out, List<RegistryDataProvider.RegistryData> registryData, boolean corePackKnown) {
+        for (RegistryDataProvider.RegistryData registry : registryData) {
+            out.begin(CONFIG_C_REGISTRY_DATA);
+            out.writeString(registry.id());
+            out.writeVarInt(registry.size());
+            if (!corePackKnown) {
+                out.writeBytes(registry.entries());
+                out.end();
+                continue;
+            }
+            for (int i = 0; i < registry.size(); i++) {
+                if (registry.keyStartsWith(i, CORE_PACK_PREFIX)) {
+                    out.writeBytes(registry.entry(i).limit(registry.keyLength(i)));
+                    out.writeBoolean(false);
+                } else {
+                    out.writeBytes(registry.entry(i));
+                }
+            }
+            out.end();
+        }
+    }
+
+    private static void writeTags(PacketWriter out, List<TagsDataProvider.TagRegistry> tagsData) {
+        out.begin(CONFIG_C_TAGS);
+        out.writeVarInt(tagsData.size());
+        for (TagsDataProvider.TagRegistry registry : tagsData) {
+            out.writeString(registry.registryId());
+            out.writeVarInt(registry.size());
+            out.writeBytes(registry.tags());
+        }
+        out.end();
+    }
+}
@@ -0,0 +1,116 @@
+package eu.mikart.kimmoke.server;
+
+import java.util.concurrent.atomic.LongAdder;
+
+final class ServerStats {
+    private static final int RTT_BUCKETS = 16;
+
+    final LongAdder connectionsAccepted = new LongAdder();
+    final LongAdder statusRequests = new LongAdder();
+    final LongAdder logins = new LongAdder();
+    final LongAdder online = new LongAdder();
+    final LongAdder readSyscalls = new LongAdder();
+    final LongAdder writeSyscalls = new LongAdder();
+    final LongAdder slowConsumerDisconnects = new LongAdder();
+    final LongAdder timeouts = new LongAdder();
+    final LongAdder keepAliveTimeouts = new LongAdder();
+    final LongAdder admissionRejects = new LongAdder();
+    final LongAdder acceptFailures = new LongAdder();
+    final LongAdder transfers = new LongAdder();
+    final LongAdder unverifiedLogins = new LongAdder();
+    private final LongAdder[] rttBuckets = new LongAdder[RTT_BUCKETS];
+
+    private long lastReportAt = System.nanoTime();
+    private long lastLogins = 0L;
+    private long lastAccepted = 0L;
+    private long lastReads = 0L;
+    private long lastWrites = 0L;
+    private final long[] lastRtt = new long[RTT_BUCKETS];
+
+    ServerStats() {
+        for (int i = 0; i < RTT_BUCKETS; i++) {
+            rttBuckets[i] = new LongAdder();
+        }
+    }
+
+    void recordRtt(long millis) {
+        int bucket = Math.min(RTT_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(Math.max(0L, millis)));
+        rttBuckets[bucket].increment();
+    }
+
+    synchronized String report(EventLoop[] loops) {
+        long now = System.nanoTime();
+        double seconds = Math.max(1e-9, (now - lastReportAt) / 1_000_000_000.0);
+        long logins = this.logins.sum();
+        long accepted = connectionsAccepted.sum();
+        long reads = readSyscalls.sum();
+        long writes = writeSyscalls.sum();
+        long loginDelta = Math.max(1L, logins - lastLogins);
+
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("logins/s=%.1f accepts/s=%.1f reads/login=%.1f writes/login=%.1f logins=%d online=%d status=%d slow=%d timeouts=%d dead=%d rejected=%d acceptFailures=%d transferred=%d unverified=%d connections=[",
+            (logins - lastLogins) / seconds,
+            (accepted - lastAccepted) / seconds,
+            (reads - lastReads) / (double) loginDelta,
+            (writes - lastWrites) / (double) loginDelta,
+            logins,
+            online.sum(),
+            statusRequests.sum(),
+            slowConsumerDisconnects.sum(),
+            timeouts.sum(),
+            keepAliveTimeouts.sum(),
+            admissionRejects.sum(),
+            acceptFailures.sum(),
+            transfers.sum(),
+            unverifiedLogins.sum()));
+        for (int i = 0; i < loops.length; i++) {
+            if (i > 0) {
+                builder.append(' ');
+            }
+            builder.append(loops[i].connectionCount());
+        }
+        builder.append(']');
+        appendRtt(builder);
+
+        lastReportAt = now;
+        lastLogins = logins;
+        lastAccepted = accepted;
+        lastReads = reads;
+        lastWrites = writes;
+        return builder.toString();
+    }
+
+    private void appendRtt(StringBuilder builder) {
+        long[] counts = new long[RTT_BUCKETS];
+        long total = 0L;
+        for (int i = 0; i < RTT_BUCKETS; i++) {
+            long sum = rttBuckets[i].sum();
+            counts[i] = sum - lastRtt[i];
+            lastRtt[i] = sum;
+            total += counts[i];
+        }
+
+        builder.append(" rtt=[");
+        if (total == 0L) {
+            builder.append("-]");
+            return;
+        }
+        builder.append("n=").append(total)
+            .append(" p50<").append(rttPercentile(counts, total, 0.50)).append("ms")
+            .append(" p90<").append(rttPercentile(counts, total, 0.90)).append("ms")
+            .append(" p99<").append(rttPercentile(counts, total, 0.99)).append("ms")
+            .append(" max<").append(rttPercentile(counts, total, 1.0)).append("ms]");
+    }
+
+    private static String rttPercentile(long[] counts, long total, double percentile) {
+        long threshold = (long) Math.ceil(total * percentile);
+        long seen = 0L;
+        for (int i = 0; i < RTT_BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= threshold) {
+                return i == RTT_BUCKETS - 1 ? "inf" : Long.toString(1L << i);
+            }
+        }
+        return "inf";
+    }
+}
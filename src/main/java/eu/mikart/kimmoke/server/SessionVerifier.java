@@ -0,0 +1,8 @@
+package eu.mikart.kimmoke.server;
+
+import java.io.IOException;
+
+@FunctionalInterface
+public interface SessionVerifier {
+    GameProfile hasJoined(String username, String serverHash) throws IOException;
+}
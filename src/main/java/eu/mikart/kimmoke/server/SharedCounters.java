@@ -0,0 +1,103 @@
+package eu.mikart.kimmoke.server;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+final class SharedCounters {
+    private static final int MAGIC = 0x4B4D4B43;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int SLOT_SIZE = 32;
+    private static final int SLOT_COUNT = 64;
+    private static final int PID_OFFSET = 0;
+    private static final int HEARTBEAT_OFFSET = 8;
+    private static final int ONLINE_OFFSET = 16;
+    private static final long HEARTBEAT_INTERVAL_MS = 1_000L;
+    private static final long STALE_AFTER_MS = 5_000L;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final FileLock slotLock;
+    private final int slotOffset;
+
+    private SharedCounters(FileChannel channel, MappedByteBuffer buffer, FileLock slotLock, int slotOffset) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.slotLock = slotLock;
+        this.slotOffset = slotOffset;
+    }
+
+    static SharedCounters open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) SLOT_COUNT * SLOT_SIZE);
+            int magic = (int) INTS.getVolatile(buffer, 0);
+            if (magic == 0) {
+                INTS.compareAndSet(buffer, 4, 0, VERSION);
+                INTS.compareAndSet(buffer, 0, 0, MAGIC);
+            } else if (magic != MAGIC || (int) INTS.getVolatile(buffer, 4) != VERSION) {
+                throw new IOException("Unrecognised counters file: " + path);
+            }
+
+            for (int slot = 0; slot < SLOT_COUNT; slot++) {
+                int offset = HEADER_SIZE + slot * SLOT_SIZE;
+                FileLock lock = channel.tryLock(offset, SLOT_SIZE, false);
+                if (lock == null) {
+                    continue;
+                }
+
+                LONGS.setVolatile(buffer, offset + ONLINE_OFFSET, 0L);
+                LONGS.setVolatile(buffer, offset + PID_OFFSET, ProcessHandle.current().pid());
+                LONGS.setVolatile(buffer, offset + HEARTBEAT_OFFSET, System.currentTimeMillis());
+
+                SharedCounters counters = new SharedCounters(channel, buffer, lock, offset);
+                Thread heartbeat = new Thread(counters::heartbeat, "kimmoke-counters");
+                heartbeat.setDaemon(true);
+                heartbeat.start();
+                return counters;
+            }
+            throw new IOException("No free slot in counters file: " + path);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    void addOnline(long delta) {
+        LONGS.getAndAdd(buffer, slotOffset + ONLINE_OFFSET, delta);
+    }
+
+    long totalOnline() {
+        long now = System.currentTimeMillis();
+        long total = 0L;
+        for (int slot = 0; slot < SLOT_COUNT; slot++) {
+            int offset = HEADER_SIZE + slot * SLOT_SIZE;
+            if (offset != slotOffset && now - (long) LONGS.getVolatile(buffer, offset + HEARTBEAT_OFFSET) > STALE_AFTER_MS) {
+                continue;
+            }
+            total += (long) LONGS.getVolatile(buffer, offset + ONLINE_OFFSET);
+        }
+        return Math.max(0L, total);
+    }
+
+    private void heartbeat() {
+        while (slotLock.isValid() && channel.isOpen()) {
+            LONGS.setVolatile(buffer, slotOffset + HEARTBEAT_OFFSET, System.currentTimeMillis());
+            try {
+                Thread.sleep(HEARTBEAT_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package eu.mikart.kimmoke.server;
+
+import java.nio.ByteBuffer;
+
+record StatusResponse(long online, String motd, ByteBuffer frame, ByteBuffer legacyFrame, ByteBuffer betaLegacyFrame) {
+    private static final int STATUS_C_SERVER_INFO = 0x00;
+    private static final int LEGACY_KICK = 0xFF;
+    private static final int LEGACY_PROTOCOL = 127;
+
+    static StatusResponse encode(String versionName, int protocol, int maxPlayers, long online, String motd, String favicon) {
+        StringBuilder json = new StringBuilder(256 + (favicon != null ? favicon.length() : 0));
+        json.append("{\"version\":{\"name\":\"").append(versionName).append("\",\"protocol\":").append(protocol).append("},")
+            .append("\"players\":{\"max\":").append(maxPlayers).append(",\"online\":").append(online).append("},")
+            .append("\"description\":{\"text\":");
+        appendJsonString(json, motd);
+        json.append("},");
+        if (favicon != null) {
+            json.append("\"favicon\":\"").append(favicon).append("\",");
+        }
+        json.append("\"enforcesSecureChat\":false}");
+
+        PacketWriter out = new PacketWriter(json.length() + 16, true);
+        out.begin(STATUS_C_SERVER_INFO);
+        out.writeString(json.toString());
+        out.end();
+        ByteBuffer frame = out.take().asReadOnlyBuffer();
+
+        String legacy = "\u00a71\0" + LEGACY_PROTOCOL + "\0" + versionName + "\0" + motd.replace('\0', ' ') + "\0" + online + "\0" + maxPlayers;
+        String betaLegacy = motd.replace("\u00a7", "") + "\u00a7" + online + "\u00a7" + maxPlayers;
+        return new StatusResponse(online, motd, frame, legacyKick(legacy), legacyKick(betaLegacy));
+    }
+
+    ByteBuffer legacyFrame(boolean beta) {
+        return beta ? betaLegacyFrame : legacyFrame;
+    }
+
+    private static ByteBuffer legacyKick(String reason) {
+        ByteBuffer frame = ByteBuffer.allocateDirect(3 + reason.length() * 2);
+        frame.put((byte) LEGACY_KICK);
+        frame.putShort((short) reason.length());
+        for (int i = 0; i < reason.length(); i++) {
+            frame.putChar(reason.charAt(i));
+        }
+        return frame.flip().asReadOnlyBuffer();
+    }
+
+    private static void appendJsonString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                default -> {
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+                }
+            }
+        }
+        json.append('"');
+    }
+}
@@ -1,9 +1,11 @@
 package eu.mikart.kimmoke.server;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 final class TagsDataProvider {
     private static final String TAGS_NBT_RESOURCE = "/tags_1_21_11.nbt";
@@ -18,22 +20,21 @@ final class TagsDataProvider {
                     throw new IllegalStateException("Missing tags resource: " + TAGS_NBT_RESOURCE);
                 }
 
-                Map<String, NbtIo.Tag> root = NbtIo.readCompressedRootCompound(input);
-
+                PacketWriter arena = new PacketWriter(1 << 14, false);
                 List<TagRegistry> result = new ArrayList<>();
-                for (Map.Entry<String, NbtIo.Tag> registryEntry : root.entrySet()) {
-                    String registryId = registryEntry.getKey();
-                    Map<String, NbtIo.Tag> tagsCompound = asCompound(registryEntry.getValue());
-
-                    List<TagEntry> tags = new ArrayList<>();
-                    for (Map.Entry<String, NbtIo.Tag> tagEntry : tagsCompound.entrySet()) {
-                        tags.add(new TagEntry(tagEntry.getKey(), extractEntryIds(tagEntry.getValue())));
+                NbtIo.readRootCompound(NbtIo.readCompressed(input), (registryId, type, registry) -> {
+                    if (type != NbtIo.TAG_COMPOUND) {
+                        throw new IllegalStateException("Expected compound tag");
                     }
 
-                    if (!tags.isEmpty()) {
-                        result.add(new TagRegistry(registryId, List.copyOf(tags)));
+                    TagsVisitor tags = new TagsVisitor(arena);
+                    NbtIo.readCompound(registry, tags);
+                    if (tags.count > 0) {
+                        result.add(tags.finish(registryId));
+                    } else {
+                        arena.reset();
                     }
-                }
+                });
 
                 return List.copyOf(result);
             }
@@ -42,46 +43,61 @@ final class TagsDataProvider {
         }
     }
 
-    private static List<Integer> extractEntryIds(NbtIo.Tag tag) {
-        if (tag.type() == 11) {
-            int[] values = (int[]) tag.value();
-            List<Integer> ids = new ArrayList<>(values.length);
-            for (int value : values) {
-                ids.add(value);
-            }
-            return List.copyOf(ids);
+    private static int[] extractEntryIds(int type, ByteBuffer payload) throws IOException {
+        if (type == NbtIo.TAG_INT_ARRAY) {
+            return NbtIo.readIntArray(payload);
         }
 
-        if (tag.type() == 9) {
-            NbtIo.ListTag listTag = (NbtIo.ListTag) tag.value();
-            if (listTag.values().isEmpty()) {
-                return List.of();
-            }
-            if (listTag.elementType() != 3) {
-                throw new IllegalStateException("Expected list<int> entries for tags");
-            }
-            List<Integer> ids = new ArrayList<>(listTag.values().size());
-            for (Object value : listTag.values()) {
-                ids.add(((Number) value).intValue());
-            }
-            return List.copyOf(ids);
+        if (type == NbtIo.TAG_LIST) {
+            int[] ids = new int[Math.max(0, payload.getInt(payload.position() + 1))];
+            NbtIo.readList(payload, (index, elementType, element) -> {
+                if (elementType != NbtIo.TAG_INT) {
+                    throw new IllegalStateException("Expected list<int> entries for tags");
+                }
+                ids[index] = element.getInt();
+            });
+            return ids;
         }
 
-        throw new IllegalStateException("Unsupported tag entry payload type: " + tag.type());
+        throw new IllegalStateException("Unsupported tag entry payload type: " + type);
     }
 
-    private static Map<String, NbtIo.Tag> asCompound(NbtIo.Tag tag) {
-        if (tag == null || tag.type() != 10) {
-            throw new IllegalStateException("Expected compound tag");
+    private static final class TagsVisitor implements NbtIo.CompoundVisitor {
+        private final PacketWriter arena;
+        private int[] offsets = new int[64];
+        private int count = 0;
+
+        private TagsVisitor(PacketWriter arena) {
+            this.arena = arena;
+        }
+
+        @Override
+        public void visit(String tagId, int type, ByteBuffer payload) throws IOException {
+            int[] ids = extractEntryIds(type, payload);
+            if (count + 1 == offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            offsets[count++] = arena.mark();
+            arena.writeString(tagId);
+            arena.writeVarInt(ids.length);
+            for (int id : ids) {
+                arena.writeVarInt(id);
+            }
         }
-        @SuppressWarnings("unchecked")
-        Map<String, NbtIo.Tag> value = (Map<String, NbtIo.Tag>) tag.value();
-        return value;
-    }
 
-    record TagRegistry(String registryId, List<TagEntry> tags) {
+        private TagRegistry finish(String registryId) {
+            offsets[count] = arena.mark();
+            return new TagRegistry(registryId, arena.takeRaw().asReadOnlyBuffer(), Arrays.copyOf(offsets, count + 1));
+        }
     }
 
-    record TagEntry(String tagId, List<Integer> entryIds) {
+    record TagRegistry(String registryId, ByteBuffer tags, int[] offsets) {
+        int size() {
+            return offsets.length - 1;
+        }
+
+        ByteBuffer tag(int index) {
+            return tags.slice(offsets[index], offsets[index + 1] - offsets[index]);
+        }
     }
 }
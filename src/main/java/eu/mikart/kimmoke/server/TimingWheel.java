@@ -0,0 +1,91 @@
+package eu.mikart.kimmoke.server;
+
+import java.util.function.Consumer;
+
+final class TimingWheel {
+    private final long tickMillis;
+    private final long startMillis;
+    private final Connection[] slots;
+    private final int mask;
+    private long currentTick = 0L;
+    private int size = 0;
+
+    TimingWheel(int slotCount, long tickMillis, long nowMillis) {
+        if (Integer.bitCount(slotCount) != 1) {
+            throw new IllegalArgumentException("Slot count must be a power of two: " + slotCount);
+        }
+        this.tickMillis = tickMillis;
+        this.startMillis = nowMillis;
+        this.slots = new Connection[slotCount];
+        this.mask = slotCount - 1;
+    }
+
+    long currentTick() {
+        return currentTick;
+    }
+
+    void schedule(Connection connection, long delayMillis) {
+        cancel(connection);
+        long deadline = currentTick + Math.max(1L, (delayMillis + tickMillis - 1) / tickMillis);
+        int slot = (int) (deadline & mask);
+
+        connection.timerDeadline = deadline;
+        connection.timerPrev = null;
+        connection.timerNext = slots[slot];
+        if (connection.timerNext != null) {
+            connection.timerNext.timerPrev = connection;
+        }
+        slots[slot] = connection;
+        size++;
+    }
+
+    void cancel(Connection connection) {
+        if (connection.timerDeadline < 0) {
+            return;
+        }
+        if (connection.timerPrev != null) {
+            connection.timerPrev.timerNext = connection.timerNext;
+        } else {
+            slots[(int) (connection.timerDeadline & mask)] = connection.timerNext;
+        }
+        if (connection.timerNext != null) {
+            connection.timerNext.timerPrev = connection.timerPrev;
+        }
+        connection.timerPrev = null;
+        connection.timerNext = null;
+        connection.timerDeadline = -1L;
+        size--;
+    }
+
+    long timeout(long nowMillis) {
+        if (size == 0) {
+            return 0L;
+        }
+        for (int i = 1; i <= slots.length; i++) {
+            if (slots[(int) ((currentTick + i) & mask)] != null) {
+                return Math.max(1L, startMillis + (currentTick + i) * tickMillis - nowMillis);
+            }
+        }
+        return tickMillis;
+    }
+
+    void advance(long nowMillis, Consumer<Connection> expired) {
+        long target = (nowMillis - startMillis) / tickMillis;
+        if (size == 0) {
+            currentTick = Math.max(currentTick, target);
+            return;
+        }
+        while (currentTick < target) {
+            currentTick++;
+            Connection connection = slots[(int) (currentTick & mask)];
+            while (connection != null) {
+                Connection next = connection.timerNext;
+                if (connection.timerDeadline <= currentTick) {
+                    cancel(connection);
+                    expired.accept(connection);
+                }
+                connection = next;
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package eu.mikart.kimmoke.server;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+final class TransferQueue {
+    private static final int PLAY_C_TRANSFER = 0x7F;
+    private static final long TICK_MS = 50L;
+    private static final int CACHED_POSITIONS = 1 << 14;
+    private static final String POSITION_TEXT = "Position in queue: ";
+
+    private final Queue<Connection> waiting = new ConcurrentLinkedQueue<>();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicReferenceArray<ByteBuffer> positionBars = new AtomicReferenceArray<>(CACHED_POSITIONS * 2);
+    private final long releaseIntervalNanos;
+    private final ByteBuffer transfer;
+    private final ByteBuffer transferCompressed;
+    private volatile long head = 0L;
+
+    TransferQueue(String host, int port, int perSecond, PacketCompression precompression) {
+        this.releaseIntervalNanos = 1_000_000_000L / Math.max(1, perSecond);
+        PacketWriter out = new PacketWriter(64 + host.length(), true);
+        out.begin(PLAY_C_TRANSFER);
+        out.writeString(host);
+        out.writeVarInt(port);
+        out.end();
+        this.transfer = out.take().asReadOnlyBuffer();
+        this.transferCompressed = precompression == null ? null : precompression.compressFrames(transfer, true).asReadOnlyBuffer();
+    }
+
+    void enqueue(Connection connection) {
+        connection.queueTicket = tail.getAndIncrement();
+        waiting.add(connection);
+    }
+
+    long position(Connection connection) {
+        return Math.max(1L, connection.queueTicket - head + 1);
+    }
+
+    long waiting() {
+        return Math.max(0L, tail.get() - head);
+    }
+
+    ByteBuffer transfer(boolean compressed) {
+        return compressed ? transferCompressed : transfer;
+    }
+
+    ByteBuffer positionBar(long position, PacketCompression compression) {
+        int index = position < CACHED_POSITIONS ? (int) position * 2 + (compression != null ? 1 : 0) : -1;
+        ByteBuffer bar = index >= 0 ? positionBars.get(index) : null;
+        if (bar != null) {
+            return bar;
+        }
+
+        PacketWriter out = new PacketWriter(64, false);
+        Broadcast.writeActionBar(out, POSITION_TEXT + position);
+        bar = out.take();
+        bar = (compression != null ? compression.compressFrames(bar, false) : bar).asReadOnlyBuffer();
+        if (index >= 0) {
+            positionBars.set(index, bar);
+        }
+        return bar;
+    }
+
+    void run() {
+        long next = System.nanoTime();
+        while (true) {
+            try {
+                Thread.sleep(TICK_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            long now = System.nanoTime();
+            while (next - now <= 0L) {
+                Connection connection = pollLive();
+                if (connection == null) {
+                    next = now;
+                    break;
+                }
+                head = Math.max(head, connection.queueTicket + 1);
+                connection.loop.transfer(connection);
+                next += releaseIntervalNanos;
+            }
+        }
+    }
+
+    private Connection pollLive() {
+        Connection connection;
+        while ((connection = waiting.poll()) != null) {
+            if (connection.state == ConnectionState.PLAY) {
+                return connection;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,64 @@
+package eu.mikart.kimmoke.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdmissionControlTest {
+    private static final long GOLDEN_RATIO = 0x9E37_79B9_7F4A_7C15L;
+
+    @Test
+    void craftedIpv6AddressDoesNotShareTheVictimsSlot() throws Exception {
+        AdmissionControl admission = new AdmissionControl(0, 1, 0, 0);
+        byte[] victim = InetAddress.getByName("2001:db8:1:2:aaaa:bbbb:cccc:dddd").getAddress();
+        long victimHigh = AdmissionControl.addressHigh(victim);
+        long victimLow = AdmissionControl.addressLow(victim);
+        long attackerHigh = 0x2001_0DB8_FFFF_0001L;
+        long attackerLow = victimHigh * GOLDEN_RATIO ^ victimLow ^ attackerHigh * GOLDEN_RATIO;
+
+        assertTrue(admission.admit(attackerHigh, attackerLow));
+        assertFalse(admission.admit(attackerHigh, attackerLow));
+        assertTrue(admission.admit(victimHigh, victimLow));
+        assertFalse(admission.admit(victimHigh, victimLow));
+    }
+
+    @Test
+    void distinctIpv6AddressesNeverShareASlot() throws Exception {
+        AdmissionControl admission = new AdmissionControl(0, 1, 0, 0);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long high = 0x2001_0DB8_0000_0001L;
+        for (int i = 0; i < 200_000; i++) {
+            long low = (long) i << 32 | random.nextInt() & 0xFFFF_FFFFL;
+            assertTrue(admission.admit(high, low), "address " + i + " was rejected");
+        }
+        for (int i = 0; i < 1_000; i++) {
+            byte[] address = ByteBuffer.allocate(16).putLong(random.nextLong()).putLong(random.nextLong()).array();
+            long addressHigh = AdmissionControl.addressHigh(address);
+            long addressLow = AdmissionControl.addressLow(address);
+            assertTrue(admission.admit(addressHigh, addressLow));
+            assertFalse(admission.admit(addressHigh, addressLow));
+        }
+    }
+
+    @Test
+    void ipv4AddressesShareTheirPrefix() throws Exception {
+        AdmissionControl admission = new AdmissionControl(0, 0, 0, 2);
+        byte[] first = InetAddress.getByName("192.0.2.1").getAddress();
+        byte[] second = InetAddress.getByName("192.0.2.2").getAddress();
+        byte[] third = InetAddress.getByName("192.0.2.3").getAddress();
+        byte[] other = InetAddress.getByName("198.51.100.1").getAddress();
+
+        assertTrue(admission.admit(AdmissionControl.addressHigh(first), AdmissionControl.addressLow(first)));
+        assertTrue(admission.admit(AdmissionControl.addressHigh(second), AdmissionControl.addressLow(second)));
+        assertFalse(admission.admit(AdmissionControl.addressHigh(third), AdmissionControl.addressLow(third)));
+        assertTrue(admission.admit(AdmissionControl.addressHigh(other), AdmissionControl.addressLow(other)));
+
+        admission.release(AdmissionControl.addressHigh(first), AdmissionControl.addressLow(first));
+        assertTrue(admission.admit(AdmissionControl.addressHigh(third), AdmissionControl.addressLow(third)));
+    }
+}
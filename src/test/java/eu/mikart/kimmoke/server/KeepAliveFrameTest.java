@@ -0,0 +1,99 @@
+package eu.mikart.kimmoke.server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KeepAliveFrameTest {
+    private static final int PLAY_S_KEEP_ALIVE = 0x1B;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void keepAliveSplitAcrossReadsIsHandled() throws Exception {
+        NioLimboServer server = new NioLimboServer("127.0.0.1", TestServers.settings(directory, "compressionThreshold: 256\n"));
+        EventLoop loop = new EventLoop(server, 0, 0L, new PacketCompression(256, Deflater.DEFAULT_COMPRESSION), null, null);
+
+        try (ServerSocketChannel listener = ServerSocketChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+             SocketChannel client = SocketChannel.open(listener.getLocalAddress());
+             SocketChannel channel = listener.accept();
+             Selector selector = Selector.open()) {
+            Connection connection = playConnection(loop, channel, selector);
+
+            ByteBuffer keepAlive = ByteBuffer.allocate(11);
+            keepAlive.put((byte) 10).put((byte) 0).put((byte) PLAY_S_KEEP_ALIVE).putLong(connection.keepAliveId).flip();
+
+            client.write(keepAlive.slice(0, 3));
+            receive(server, selector, connection);
+            assertEquals(ConnectionState.PLAY, connection.state);
+            assertEquals(-1, connection.latencyMillis);
+
+            client.write(keepAlive.slice(3, 8));
+            receive(server, selector, connection);
+            assertKeepAliveAnswered(connection);
+        }
+    }
+
+    @Test
+    void compressedKeepAliveIsHandled() throws Exception {
+        NioLimboServer server = new NioLimboServer("127.0.0.1", TestServers.settings(directory, "compressionThreshold: 0\n"));
+        EventLoop loop = new EventLoop(server, 0, 0L, new PacketCompression(0, Deflater.DEFAULT_COMPRESSION), null, null);
+
+        try (ServerSocketChannel listener = ServerSocketChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+             SocketChannel client = SocketChannel.open(listener.getLocalAddress());
+             SocketChannel channel = listener.accept();
+             Selector selector = Selector.open()) {
+            Connection connection = playConnection(loop, channel, selector);
+
+            ByteBuffer body = ByteBuffer.allocate(9).put((byte) PLAY_S_KEEP_ALIVE).putLong(connection.keepAliveId).flip();
+            Deflater deflater = new Deflater();
+            deflater.setInput(body);
+            deflater.finish();
+            ByteBuffer deflated = ByteBuffer.allocate(64);
+            deflater.deflate(deflated);
+            deflater.end();
+            deflated.flip();
+
+            ByteBuffer keepAlive = ByteBuffer.allocate(2 + deflated.remaining());
+            keepAlive.put((byte) (1 + deflated.remaining())).put((byte) 9).put(deflated).flip();
+            client.write(keepAlive);
+            receive(server, selector, connection);
+            assertKeepAliveAnswered(connection);
+        }
+    }
+
+    private static Connection playConnection(EventLoop loop, SocketChannel channel, Selector selector) throws Exception {
+        channel.configureBlocking(false);
+        Connection connection = new Connection(channel, loop);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        connection.state = ConnectionState.PLAY;
+        connection.compressed = true;
+        connection.keepAliveId = System.currentTimeMillis();
+        return connection;
+    }
+
+    private static void receive(NioLimboServer server, Selector selector, Connection connection) throws Exception {
+        assertTrue(selector.select(5_000L) > 0, "no data arrived");
+        selector.selectedKeys().clear();
+        server.read(connection.key);
+    }
+
+    private static void assertKeepAliveAnswered(Connection connection) {
+        assertEquals(ConnectionState.PLAY, connection.state);
+        assertEquals(0L, connection.keepAliveId);
+        assertTrue(connection.latencyMillis >= 0, "keep-alive round trip was not recorded");
+        assertEquals(-1, connection.frameLength);
+    }
+}
@@ -0,0 +1,115 @@
+package eu.mikart.kimmoke.server;
+
+import com.sun.management.ThreadMXBean;
+import eu.mikart.kimmoke.Settings;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class LoginAllocationTest {
+    private static final String SECRET = "login-allocation-test";
+    private static final String USERNAME = "Forwarded";
+    private static final long UUID_MOST = 0x0102_0304_0506_0708L;
+    private static final long UUID_LEAST = 0x090A_0B0C_0D0E_0F10L;
+    private static final int WARMUP_LOGINS = 20_000;
+    private static final int MEASURED_LOGINS = 10_000;
+    private static final long BYTES_PER_LOGIN = 1024L;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void forwardedLoginStaysWithinAllocationBudget() throws Exception {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        Settings settings = TestServers.settings(directory, "velocityModernForwarding: true\nvelocitySecret: " + SECRET + "\n");
+        NioLimboServer server = new NioLimboServer("127.0.0.1", settings);
+        PacketCompression compression = new PacketCompression(settings.getCompressionThreshold(), Deflater.DEFAULT_COMPRESSION);
+        EventLoop loop = new EventLoop(server, 0, 0L, compression, forwardingMac(), null);
+        ByteBuffer payload = forwardingPayload();
+
+        login(server, connections(loop, WARMUP_LOGINS), payload);
+
+        Connection[] connections = connections(loop, MEASURED_LOGINS);
+        long before = threads.getCurrentThreadAllocatedBytes();
+        login(server, connections, payload);
+        long perLogin = (threads.getCurrentThreadAllocatedBytes() - before) / MEASURED_LOGINS;
+
+        Connection connection = connections[MEASURED_LOGINS - 1];
+        assertEquals(USERNAME, connection.username);
+        assertEquals(UUID_MOST, connection.uuidMost);
+        assertEquals(UUID_LEAST, connection.uuidLeast);
+        assertTrue(connection.loggedIn);
+        assertTrue(perLogin <= BYTES_PER_LOGIN, "login allocated " + perLogin + " bytes, budget is " + BYTES_PER_LOGIN);
+    }
+
+    private static void login(NioLimboServer server, Connection[] connections, ByteBuffer payload) {
+        for (Connection connection : connections) {
+            payload.position(0);
+            if (!server.applyVelocityForwarding(connection, payload)) {
+                throw new AssertionError("forwarding signature rejected");
+            }
+            server.sendLoginSuccess(connection);
+        }
+    }
+
+    private static Connection[] connections(EventLoop loop, int count) {
+        Connection[] connections = new Connection[count];
+        for (int i = 0; i < count; i++) {
+            connections[i] = new Connection(null, loop);
+        }
+        return connections;
+    }
+
+    private static Mac forwardingMac() throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(SECRET.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        return mac;
+    }
+
+    private static ByteBuffer forwardingPayload() throws Exception {
+        ByteBuffer data = ByteBuffer.allocate(256);
+        writeVarInt(data, 1);
+        writeString(data, "127.0.0.1");
+        data.putLong(UUID_MOST).putLong(UUID_LEAST);
+        writeString(data, USERNAME);
+        writeVarInt(data, 1);
+        writeString(data, "textures");
+        writeString(data, "value");
+        data.put((byte) 1);
+        writeString(data, "signature");
+        data.flip();
+
+        Mac mac = forwardingMac();
+        mac.update(data.duplicate());
+        byte[] signature = mac.doFinal();
+        return ByteBuffer.allocate(signature.length + data.limit()).put(signature).put(data).flip();
+    }
+
+    private static void writeString(ByteBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(buffer, bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static void writeVarInt(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+}
@@ -0,0 +1,217 @@
+package eu.mikart.kimmoke.server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OnlineModeLoginTest {
+    private static final int LOGIN_C_DISCONNECT = 0x00;
+    private static final int LOGIN_C_ENCRYPTION_REQUEST = 0x01;
+    private static final int LOGIN_C_SUCCESS = 0x02;
+    private static final UUID VERIFIED_ID = new UUID(0x1122_3344_5566_7788L, 0x99AA_BBCC_DDEE_FF00L);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void loginSuccessIsSentFromTheLoopAfterVerification() throws Exception {
+        CountDownLatch called = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicReference<Thread> verifierThread = new AtomicReference<>();
+        Loop loop = start((username, serverHash) -> {
+            verifierThread.set(Thread.currentThread());
+            called.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return new GameProfile(VERIFIED_ID, "Verified", List.of());
+        });
+
+        try (ServerSocketChannel listener = ServerSocketChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+             Socket client = new Socket()) {
+            InputStream session = connect(listener, client, loop);
+            assertTrue(called.await(5, TimeUnit.SECONDS), "session server was not asked");
+            assertNotEquals(loop.thread(), verifierThread.get());
+
+            client.setSoTimeout(300);
+            assertThrows(SocketTimeoutException.class, () -> client.getInputStream().read());
+            client.setSoTimeout(5_000);
+            release.countDown();
+
+            DataInputStream frame = readFrame(session);
+            assertEquals(LOGIN_C_SUCCESS, readVarInt(frame));
+            assertEquals(VERIFIED_ID, new UUID(frame.readLong(), frame.readLong()));
+            assertEquals("Verified", readString(frame));
+        }
+    }
+
+    @Test
+    void rejectedVerificationDisconnects() throws Exception {
+        Loop loop = start((username, serverHash) -> null);
+        assertDisconnected(loop, "multiplayer.disconnect.unverified_username");
+    }
+
+    @Test
+    void failingSessionServerDisconnects() throws Exception {
+        Loop loop = start((username, serverHash) -> {
+            throw new IOException("session server down");
+        });
+        assertDisconnected(loop, "multiplayer.disconnect.authservers_down");
+    }
+
+    private void assertDisconnected(Loop loop, String reason) throws Exception {
+        try (ServerSocketChannel listener = ServerSocketChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+             Socket client = new Socket()) {
+            InputStream session = connect(listener, client, loop);
+            DataInputStream frame = readFrame(session);
+            assertEquals(LOGIN_C_DISCONNECT, readVarInt(frame));
+            assertTrue(readString(frame).contains(reason));
+            assertThrows(EOFException.class, () -> readFrame(session));
+        }
+    }
+
+    private Loop start(SessionVerifier verifier) throws Exception {
+        NioLimboServer server = new NioLimboServer("127.0.0.1", TestServers.settings(directory, "onlineMode: true\ncompressionThreshold: -1\n"));
+        server.setSessionVerifier(verifier);
+        EventLoop loop = server.createLoop(0);
+        Thread thread = new Thread(loop, "test-loop");
+        thread.setDaemon(true);
+        thread.start();
+        return new Loop(loop, thread);
+    }
+
+    private static InputStream connect(ServerSocketChannel listener, Socket client, Loop loop) throws Exception {
+        client.connect(listener.getLocalAddress(), 5_000);
+        client.setSoTimeout(5_000);
+        SocketChannel channel = listener.accept();
+        channel.configureBlocking(false);
+        loop.loop().register(new Connection(channel, loop.loop()));
+
+        InputStream in = client.getInputStream();
+        OutputStream out = client.getOutputStream();
+        ByteArrayOutputStream handshake = new ByteArrayOutputStream();
+        writeVarInt(handshake, 774);
+        writeString(handshake, "localhost");
+        handshake.write(0x63);
+        handshake.write(0xDD);
+        writeVarInt(handshake, 2);
+        send(out, 0x00, handshake.toByteArray());
+        ByteArrayOutputStream loginStart = new ByteArrayOutputStream();
+        writeString(loginStart, "Tester");
+        loginStart.write(new byte[16]);
+        send(out, 0x00, loginStart.toByteArray());
+
+        DataInputStream request = readFrame(in);
+        assertEquals(LOGIN_C_ENCRYPTION_REQUEST, readVarInt(request));
+        assertEquals("", readString(request));
+        byte[] publicKey = request.readNBytes(readVarInt(request));
+        byte[] verifyToken = request.readNBytes(readVarInt(request));
+        assertTrue(request.readBoolean());
+
+        PublicKey key = KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(publicKey));
+        byte[] sharedSecret = new byte[16];
+        new SecureRandom().nextBytes(sharedSecret);
+        Cipher rsa = Cipher.getInstance("RSA/ECB/PKCS1Padding");
+        rsa.init(Cipher.ENCRYPT_MODE, key);
+        byte[] encryptedSecret = rsa.doFinal(sharedSecret);
+        byte[] encryptedToken = rsa.doFinal(verifyToken);
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        writeVarInt(response, encryptedSecret.length);
+        response.write(encryptedSecret);
+        writeVarInt(response, encryptedToken.length);
+        response.write(encryptedToken);
+        send(out, 0x01, response.toByteArray());
+
+        Cipher decrypt = Cipher.getInstance("AES/CFB8/NoPadding");
+        decrypt.init(Cipher.DECRYPT_MODE, new SecretKeySpec(sharedSecret, "AES"), new IvParameterSpec(sharedSecret));
+        return new CipherInputStream(in, decrypt);
+    }
+
+    private record Loop(EventLoop loop, Thread thread) {
+    }
+
+    private static void send(OutputStream out, int packetId, byte[] payload) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        writeVarInt(body, packetId);
+        body.write(payload);
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        writeVarInt(frame, body.size());
+        body.writeTo(frame);
+        out.write(frame.toByteArray());
+        out.flush();
+    }
+
+    private static DataInputStream readFrame(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        byte[] frame = new byte[readVarInt(data)];
+        data.readFully(frame);
+        return new DataInputStream(new ByteArrayInputStream(frame));
+    }
+
+    private static int readVarInt(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("VarInt too long");
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return new String(in.readNBytes(readVarInt(in)), StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write(value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
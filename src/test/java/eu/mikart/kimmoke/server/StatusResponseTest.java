@@ -0,0 +1,28 @@
+package eu.mikart.kimmoke.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class StatusResponseTest {
+    @Test
+    void legacyPingsGetTheFormatTheirClientExpects() {
+        StatusResponse response = StatusResponse.encode("1.21.11", 774, 100, 7, "A \u00a7limbo", null);
+
+        assertEquals("\u00a71\0" + "127\0" + "1.21.11\0" + "A \u00a7limbo\0" + "7\0" + "100", kickReason(response.legacyFrame(false)));
+        assertEquals("A limbo\u00a77\u00a7100", kickReason(response.legacyFrame(true)));
+    }
+
+    private static String kickReason(ByteBuffer frame) {
+        ByteBuffer buffer = frame.duplicate();
+        assertEquals(0xFF, buffer.get() & 0xFF);
+        char[] reason = new char[buffer.getShort()];
+        for (int i = 0; i < reason.length; i++) {
+            reason[i] = buffer.getChar();
+        }
+        assertEquals(0, buffer.remaining());
+        return new String(reason);
+    }
+}
@@ -0,0 +1,19 @@
+package eu.mikart.kimmoke.server;
+
+import de.exlll.configlib.YamlConfigurations;
+import eu.mikart.kimmoke.Settings;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+final class TestServers {
+    private TestServers() {
+    }
+
+    static Settings settings(Path directory, String yaml) throws IOException {
+        Path config = directory.resolve("config.yml");
+        Files.writeString(config, yaml);
+        return YamlConfigurations.load(config, Settings.class);
+    }
+}